@@ -0,0 +1,227 @@
+package hillbillies.model;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import be.kuleuven.cs.som.annotate.*;
+
+/**
+ * A class collecting the attacks started during a tick of a world and resolving
+ * them afterwards in a separate phase. Attacks are resolved in order of the id of
+ * the attacker and, for the same attacker, in the order they were started. They
+ * are grouped in waves in which no unit takes part in more then one attack, so
+ * the attacks of one wave can be resolved in parallel.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class CombatResolver {
+
+	/**
+	 * The minimal number of attacks in one wave before the wave is resolved in parallel.
+	 */
+	private static final int MIN_PARALLEL_WAVE = 256;
+
+	private final World world;
+	private Unit[] attackers = new Unit[16], defenders = new Unit[16];
+	private long[] order = new long[16];
+	private int[] waveOf = new int[16], lastWave = new int[16];
+	private int[] waveSizes = new int[17], waveFill = new int[16], waveMembers = new int[16];
+	private Unit[] borderAttackers = new Unit[0], borderDefenders = new Unit[0];
+	private int size, resolvedCount, borderSize;
+	private boolean parallel;
+
+	/**
+	 * Initialize this new combat resolver for the given world.
+	 *
+	 * @param world
+	 *            The world of the units whose attacks will be resolved.
+	 */
+	CombatResolver(World world) {
+		this.world = world;
+	}
+
+	/**
+	 * Returns whether waves with many attacks are resolved in parallel, unless the world
+	 * is in lockstep mode.
+	 */
+	@Basic
+	public boolean isParallel() {
+		return this.parallel;
+	}
+
+	/**
+	 * Set whether waves with many attacks are resolved in parallel.
+	 *
+	 * @param parallel
+	 *            True if large waves should be resolved in parallel.
+	 * @post | new.isParallel() == parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Returns the number of attacks waiting to be resolved.
+	 */
+	public int getPendingCount() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of attacks that were resolved in the last resolution phase.
+	 */
+	public int getResolvedCount() {
+		return this.resolvedCount;
+	}
+
+	/**
+	 * Add an attack of the given attacker on the given defender.
+	 *
+	 * @param attacker
+	 *            The attacking unit.
+	 * @param defender
+	 *            The defending unit.
+	 * @post The attack is pending until the next resolution phase.
+	 * 		| new.getPendingCount() == this.getPendingCount() + 1
+	 */
+	void submit(Unit attacker, Unit defender) {
+		if (size == attackers.length) {
+			attackers = Arrays.copyOf(attackers, 2 * size);
+			defenders = Arrays.copyOf(defenders, 2 * size);
+			order = new long[2 * size];
+			waveOf = new int[2 * size];
+			waveSizes = new int[2 * size + 1];
+			waveFill = new int[2 * size];
+			waveMembers = new int[2 * size];
+		}
+		attackers[size] = attacker;
+		defenders[size] = defender;
+		size++;
+	}
+
+	/**
+	 * Resolve all pending attacks.
+	 *
+	 * @post There are no pending attacks left.
+	 * 		| new.getPendingCount() == 0
+	 * @post Every pending attack of which both units still belong to the world and
+	 *       are still adjacent to each other is resolved.
+	 * 		| for each pending attack: attacker.resolveAttack(defender)
+	 * @return The number of attacks that were resolved.
+	 */
+	public int resolve() {
+		int n = size;
+		resolvedCount = 0;
+		if (n == 0)
+			return 0;
+		// deterministic order: attacker id, then submission order
+		for (int i = 0; i < n; i++)
+			order[i] = ((long) attackers[i].getId() << 32) | i;
+		Arrays.sort(order, 0, n);
+		// every attack goes in the first wave after the last wave of both its units
+		int capacity = world.getIdCapacity();
+		if (lastWave.length < capacity)
+			lastWave = new int[Math.max(capacity, 2 * lastWave.length)];
+		Arrays.fill(lastWave, 0, capacity, -1);
+		int waves = 0;
+		for (int k = 0; k < n; k++) {
+			int i = (int) order[k];
+			if (!isValid(i)) {
+				waveOf[i] = -1;
+				continue;
+			}
+			int a = attackers[i].getId(), d = defenders[i].getId();
+			int wave = Math.max(lastWave[a], lastWave[d]) + 1;
+			waveOf[i] = wave;
+			lastWave[a] = wave;
+			lastWave[d] = wave;
+			waves = Math.max(waves, wave + 1);
+		}
+		int[] waveSizes = this.waveSizes, waveFill = this.waveFill, waveMembers = this.waveMembers;
+		Arrays.fill(waveSizes, 0, waves + 1, 0);
+		for (int i = 0; i < n; i++)
+			if (waveOf[i] >= 0)
+				waveSizes[waveOf[i] + 1]++;
+		for (int w = 0; w < waves; w++)
+			waveSizes[w + 1] += waveSizes[w];
+		System.arraycopy(waveSizes, 0, waveFill, 0, waves);
+		for (int k = 0; k < n; k++) {
+			int i = (int) order[k];
+			if (waveOf[i] >= 0)
+				waveMembers[waveFill[waveOf[i]]++] = i;
+		}
+		for (int w = 0; w < waves; w++) {
+			int from = waveSizes[w], to = waveSizes[w + 1];
+			if (parallel && !world.isLockstep() && to - from >= MIN_PARALLEL_WAVE)
+				IntStream.range(from, to).parallel().forEach(k -> resolve(waveMembers[k]));
+			else
+				for (int k = from; k < to; k++)
+					resolve(waveMembers[k]);
+		}
+		resolvedCount = waveSizes[waves];
+		Arrays.fill(attackers, 0, n, null);
+		Arrays.fill(defenders, 0, n, null);
+		size = 0;
+		return resolvedCount;
+	}
+
+	/**
+	 * Add an attack of the given attacker on the given defender of another shard of the
+	 * same sharded world. The attack starts when the attacks across shard borders are
+	 * resolved, since the shard of the defender may be advancing at the same time.
+	 */
+	void submitBorderAttack(Unit attacker, Unit defender) {
+		if (borderSize == borderAttackers.length) {
+			borderAttackers = Arrays.copyOf(borderAttackers, Math.max(4, 2 * borderSize));
+			borderDefenders = Arrays.copyOf(borderDefenders, borderAttackers.length);
+		}
+		borderAttackers[borderSize] = attacker;
+		borderDefenders[borderSize] = defender;
+		borderSize++;
+	}
+
+	/**
+	 * Resolve the pending attacks on units of other shards of the same sharded world, in
+	 * the order they were started. This may only be done while no shard is advancing.
+	 *
+	 * @post Every pending attack across a shard border of which both units are still in
+	 *       the sharded world and are still adjacent to each other is started and resolved.
+	 * 		| for each pending attack across a shard border:
+	 * 		|   if (attacker.startAttack(defender)) then attacker.resolveAttack(defender)
+	 * @return The number of attacks that were resolved.
+	 */
+	int resolveBorderAttacks() {
+		int resolved = 0;
+		for (int i = 0; i < borderSize; i++) {
+			Unit attacker = borderAttackers[i], defender = borderDefenders[i];
+			if (attacker.getWorld() != null && defender.getWorld() != null
+					&& attacker.getWorld().getShardedWorld() == world.getShardedWorld()
+					&& defender.getWorld().getShardedWorld() == world.getShardedWorld()
+					&& attacker.startAttack(defender)) {
+				attacker.resolveAttack(defender);
+				attacker.getWorld().markEngaged(attacker);
+				defender.getWorld().markEngaged(defender);
+				resolved++;
+			}
+		}
+		Arrays.fill(borderAttackers, 0, borderSize, null);
+		Arrays.fill(borderDefenders, 0, borderSize, null);
+		borderSize = 0;
+		return resolved;
+	}
+
+	/**
+	 * Checks whether the pending attack at the given index can still be resolved.
+	 */
+	private boolean isValid(int i) {
+		return attackers[i].getWorld() == world && defenders[i].getWorld() == world
+				&& attackers[i].isAdjacent(defenders[i]);
+	}
+
+	private void resolve(int i) {
+		attackers[i].resolveAttack(defenders[i]);
+		world.markEngaged(attackers[i]);
+		world.markEngaged(defenders[i]);
+	}
+}
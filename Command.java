@@ -0,0 +1,229 @@
+package hillbillies.model;
+
+import be.kuleuven.cs.som.annotate.*;
+
+/**
+ * A class of commands given to a unit by a client. Commands can be created on
+ * any thread and are executed by the world of the unit at the start of its next tick.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class Command {
+
+	/**
+	 * The kinds of commands that can be given to a unit.
+	 */
+	public enum Type {
+		ADD_TO_WORLD, REMOVE_FROM_WORLD, MOVE_TO, MOVE_TO_ADJACENT, WORK, REST, FIGHT, START_SPRINTING, STOP_SPRINTING,
+		DEFAULT_BEHAVIOUR, ADD_REGION, REMOVE_REGION
+	}
+
+	private final Type type;
+	private final Unit unit, other;
+	private final int x, y, z;
+	private final boolean flag;
+	private final int[] cells;
+	private final InterestListener listener;
+
+	/**
+	 * The next command in the inbox this command is queued in.
+	 */
+	Command next;
+
+	private Command(Type type, Unit unit, Unit other, int x, int y, int z, boolean flag) {
+		if (unit == null)
+			throw new IllegalArgumentException();
+		this.type = type;
+		this.unit = unit;
+		this.other = other;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.flag = flag;
+		this.cells = null;
+		this.listener = null;
+	}
+
+	private Command(Type type, int handle, int[] cells, InterestListener listener) {
+		this.type = type;
+		this.unit = null;
+		this.other = null;
+		this.x = handle;
+		this.y = this.z = 0;
+		this.flag = false;
+		this.cells = cells;
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns a command adding the given unit to the world it is submitted to.
+	 */
+	public static Command addToWorld(Unit unit) {
+		return new Command(Type.ADD_TO_WORLD, unit, null, 0, 0, 0, false);
+	}
+
+	/**
+	 * Returns a command removing the given unit from the world it is submitted to.
+	 */
+	public static Command removeFromWorld(Unit unit) {
+		return new Command(Type.REMOVE_FROM_WORLD, unit, null, 0, 0, 0, false);
+	}
+
+	/**
+	 * Returns a command making the given unit move to the given cube.
+	 */
+	public static Command moveTo(Unit unit, int[] cube) {
+		return new Command(Type.MOVE_TO, unit, null, cube[0], cube[1], cube[2], false);
+	}
+
+	/**
+	 * Returns a command making the given unit move to an adjacent cube.
+	 */
+	public static Command moveToAdjacent(Unit unit, int dx, int dy, int dz) {
+		return new Command(Type.MOVE_TO_ADJACENT, unit, null, dx, dy, dz, false);
+	}
+
+	/**
+	 * Returns a command making the given unit work.
+	 */
+	public static Command work(Unit unit) {
+		return new Command(Type.WORK, unit, null, 0, 0, 0, false);
+	}
+
+	/**
+	 * Returns a command making the given unit rest.
+	 */
+	public static Command rest(Unit unit) {
+		return new Command(Type.REST, unit, null, 0, 0, 0, false);
+	}
+
+	/**
+	 * Returns a command making the given attacker fight the given defender.
+	 */
+	public static Command fight(Unit attacker, Unit defender) {
+		if (defender == null)
+			throw new IllegalArgumentException();
+		return new Command(Type.FIGHT, attacker, defender, 0, 0, 0, false);
+	}
+
+	/**
+	 * Returns a command making the given unit start sprinting.
+	 */
+	public static Command startSprinting(Unit unit) {
+		return new Command(Type.START_SPRINTING, unit, null, 0, 0, 0, false);
+	}
+
+	/**
+	 * Returns a command making the given unit stop sprinting.
+	 */
+	public static Command stopSprinting(Unit unit) {
+		return new Command(Type.STOP_SPRINTING, unit, null, 0, 0, 0, false);
+	}
+
+	/**
+	 * Returns a command enabling or disabling the default behaviour of the given unit.
+	 */
+	public static Command setDefaultBehaviourEnabled(Unit unit, boolean enabled) {
+		return new Command(Type.DEFAULT_BEHAVIOUR, unit, null, 0, 0, 0, enabled);
+	}
+
+	/**
+	 * Returns a command adding the region covering the given range of cells with the given
+	 * handle to the interest manager of the world, subscribing the given listener to it if
+	 * it is not null.
+	 */
+	static Command addRegion(int handle, int[] cells, InterestListener listener) {
+		return new Command(Type.ADD_REGION, handle, cells, listener);
+	}
+
+	/**
+	 * Returns a command removing the region with the given handle from the interest manager
+	 * of the world.
+	 */
+	static Command removeRegion(int handle) {
+		return new Command(Type.REMOVE_REGION, handle, null, null);
+	}
+
+	/**
+	 * Returns the kind of this command.
+	 */
+	@Basic
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * Returns the unit this command is given to, or null if it is not given to a unit.
+	 */
+	@Basic
+	public Unit getUnit() {
+		return this.unit;
+	}
+
+	/**
+	 * Execute this command on its unit in the given world.
+	 *
+	 * @param world
+	 *            The world the command was submitted to.
+	 * @return True if the command was executed, false if it was dropped because
+	 *         the unit is not in the given world or refused the command. A command
+	 *         given to a unit that was handed off to another shard is passed on to
+	 *         that shard.
+	 */
+	boolean execute(World world) {
+		if (type == Type.ADD_REGION) {
+			world.getInterestManager().addRegion(x, cells, listener);
+			return true;
+		}
+		if (type == Type.REMOVE_REGION) {
+			if (!world.getInterestManager().hasRegion(x))
+				return false;
+			world.getInterestManager().removeRegion(x);
+			return true;
+		}
+		if (type != Type.ADD_TO_WORLD && world.isInOtherShard(unit)) {
+			world.forward(this);
+			return false;
+		}
+		if (type == Type.ADD_TO_WORLD ? unit.getWorld() != null : unit.getWorld() != world)
+			return false;
+		try {
+			switch (type) {
+			case ADD_TO_WORLD:
+				world.addUnit(unit);
+				break;
+			case REMOVE_FROM_WORLD:
+				world.removeUnit(unit);
+				break;
+			case MOVE_TO:
+				unit.moveTo(new int[] { x, y, z });
+				break;
+			case MOVE_TO_ADJACENT:
+				unit.moveToAdjacent(x, y, z);
+				break;
+			case WORK:
+				unit.work();
+				break;
+			case REST:
+				unit.rest();
+				break;
+			case FIGHT:
+				unit.attack(other);
+				break;
+			case START_SPRINTING:
+				unit.startSprinting();
+				break;
+			case STOP_SPRINTING:
+				unit.stopSprinting();
+				break;
+			case DEFAULT_BEHAVIOUR:
+				unit.setDefaultBehaviourEnabled(flag);
+				break;
+			}
+			return true;
+		} catch (IllegalArgumentException exc) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package hillbillies.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A class of lock-free inboxes for commands. Any number of threads may add
+ * commands to the inbox, while only the thread ticking the world takes them out.
+ * Adding a command is a single compare-and-set on the top of a stack; taking
+ * them out swaps the whole stack at once and reverses it, so commands added by
+ * the same thread are executed in the order they were added.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+class CommandInbox {
+	private final AtomicReference<Command> top = new AtomicReference<Command>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Add the given command to this inbox. May be called from any thread.
+	 *
+	 * @param command
+	 *            The command to add, which is not queued in any inbox.
+	 */
+	void add(Command command) {
+		Command oldTop;
+		do {
+			oldTop = top.get();
+			command.next = oldTop;
+		} while (!top.compareAndSet(oldTop, command));
+		size.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of commands in this inbox. The number is exact only
+	 * when no commands are being added at the same time.
+	 */
+	int size() {
+		return size.get();
+	}
+
+	/**
+	 * Take all commands out of this inbox and return them as a list linked by
+	 * their next field, oldest first. May only be called from the thread ticking
+	 * the world.
+	 */
+	Command drain() {
+		Command stack = top.getAndSet(null);
+		Command reversed = null;
+		int count = 0;
+		while (stack != null) {
+			Command next = stack.next;
+			stack.next = reversed;
+			reversed = stack;
+			stack = next;
+			count++;
+		}
+		size.addAndGet(-count);
+		return reversed;
+	}
+}
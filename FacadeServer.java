@@ -0,0 +1,593 @@
+package hillbillies.part1.facade;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hillbillies.model.Command;
+import hillbillies.model.OccupancyMap;
+import hillbillies.model.Unit;
+import hillbillies.model.World;
+import hillbillies.model.WorldSnapshot;
+
+/**
+ * A server giving clients on the local machine access to the units of a world
+ * through a compact binary protocol. All client sessions are served by a single
+ * selector thread with non-blocking sockets, so the number of threads does not grow
+ * with the number of sessions. Commands are submitted to the command inbox of the
+ * world and state is read from the published snapshots, so sessions never touch the
+ * units directly. While the world has too many pending commands or the ticks fall
+ * behind, a session with requests to handle stops being selected for reading until
+ * the world has caught up, so the selector thread itself never waits.
+ *
+ * A unit is created in a session and added to the world in the next tick. A unit that
+ * cannot be added, because its cube has reached its crowd limit, is forgotten after
+ * that tick, like a unit that is removed from the world: requests for its handle get
+ * UNKNOWN_UNIT.
+ *
+ * Every request starts with an opcode byte and every reply with a status byte.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class FacadeServer implements Closeable {
+
+	/* Opcodes */
+	public static final byte CREATE_UNIT = 1, MOVE_TO = 2, MOVE_TO_ADJACENT = 3, WORK = 4, REST = 5, FIGHT = 6,
+			START_SPRINTING = 7, STOP_SPRINTING = 8, SET_DEFAULT_BEHAVIOUR = 9, GET_STATE = 10;
+
+	/* Status codes */
+	public static final byte OK = 0, UNKNOWN_UNIT = 1, INVALID_REQUEST = 2;
+
+	/**
+	 * The largest number of bytes a session may have buffered without a complete request.
+	 */
+	private static final int MAX_REQUEST_SIZE = 1 << 17;
+
+	private static final System.Logger LOGGER = System.getLogger(FacadeServer.class.getName());
+
+	private final World world;
+	private final double tickLength;
+	private final int maxPendingCommands;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final int port;
+	private final Map<Integer, Handle> units = new ConcurrentHashMap<Integer, Handle>();
+	private final Map<Unit, Handle> handlesByUnit = new ConcurrentHashMap<Unit, Handle>();
+	/* The handles of the units that are added to the world by a submitted command */
+	private final Queue<Handle> addedHandles = new ConcurrentLinkedQueue<Handle>();
+	private final AtomicInteger nextHandle = new AtomicInteger();
+	/* The keys of the sessions that stopped reading, only used by the selector thread */
+	private final List<SelectionKey> pausedKeys = new ArrayList<SelectionKey>();
+	private volatile boolean behind, closed, readingPaused;
+	private Thread selectorThread, ticker;
+
+	/**
+	 * A unit created through this server.
+	 */
+	private static class Handle {
+
+		private final int id;
+		private final Unit unit;
+
+		private Handle(int id, Unit unit) {
+			this.id = id;
+			this.unit = unit;
+		}
+	}
+
+	/**
+	 * The state of one client session: the bytes received but not yet handled, the
+	 * replies not yet sent, the handles of the units created in the session and whether
+	 * the session stopped reading with requests left to handle.
+	 */
+	private static class Session {
+
+		private final SocketChannel channel;
+		private ByteBuffer input = ByteBuffer.allocate(1024);
+		private final ByteArrayOutputStream replies = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(replies);
+		private ByteBuffer output;
+		private final List<Integer> handles = new ArrayList<Integer>();
+		private boolean paused, unhandled;
+
+		private Session(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * Initialize this new server for the given world, listening on a free port of the
+	 * loopback address.
+	 *
+	 * @param world
+	 *            The world to serve.
+	 * @param tickLength
+	 *            The time, in seconds, between two ticks of the world.
+	 * @param maxPendingCommands
+	 *            The number of pending commands from which sessions stop reading requests.
+	 * @effect Snapshots are enabled in the given world.
+	 * 		| world.setSnapshotsEnabled(true)
+	 * @effect The handles of the units removed from the given world are forgotten.
+	 * 		| world.addRemovalListener(...)
+	 * @throws IllegalArgumentException
+	 *             | !(0 < tickLength && tickLength <= 0.2) || maxPendingCommands < 1
+	 * @throws IOException
+	 *             The server socket could not be opened.
+	 */
+	public FacadeServer(World world, double tickLength, int maxPendingCommands)
+			throws IllegalArgumentException, IOException {
+		if (!(0 < tickLength && tickLength <= 0.2) || maxPendingCommands < 1)
+			throw new IllegalArgumentException();
+		this.world = world;
+		this.tickLength = tickLength;
+		this.maxPendingCommands = maxPendingCommands;
+		world.setSnapshotsEnabled(true);
+		world.addRemovalListener(this::releaseHandle);
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		this.port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Returns the port this server listens on.
+	 */
+	public int getPort() {
+		return this.port;
+	}
+
+	/**
+	 * Returns whether the ticks of the world are behind on schedule.
+	 */
+	public boolean isBehind() {
+		return this.behind;
+	}
+
+	/**
+	 * Returns the number of units created through this server that can still be
+	 * addressed by their handle.
+	 */
+	public int getHandleCount() {
+		return units.size();
+	}
+
+	/**
+	 * Start accepting sessions and ticking the world.
+	 */
+	public void start() {
+		ticker = new Thread(this::tickLoop, "world-ticker");
+		ticker.start();
+		selectorThread = new Thread(this::selectLoop, "session-selector");
+		selectorThread.start();
+	}
+
+	/**
+	 * Stop ticking the world and close all sessions.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		selector.wakeup();
+		try {
+			if (ticker != null)
+				ticker.join();
+			if (selectorThread != null)
+				selectorThread.join();
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		for (SelectionKey key : selector.keys())
+			if (key.attachment() != null)
+				closeSession(key);
+		serverChannel.close();
+		selector.close();
+	}
+
+	private void tickLoop() {
+		long tickNanos = (long) (tickLength * 1e9);
+		long nextTick = System.nanoTime();
+		List<Handle> adding = new ArrayList<Handle>();
+		while (!closed) {
+			try {
+				// the commands adding these units were submitted before they were queued,
+				// so they are executed in this tick at the latest
+				Handle added;
+				while ((added = addedHandles.poll()) != null)
+					adding.add(added);
+				world.advanceTime(tickLength);
+				releaseRejectedUnits(adding);
+			} catch (RuntimeException exc) {
+				LOGGER.log(System.Logger.Level.ERROR, "Tick " + world.getTick() + " failed", exc);
+			}
+			nextTick += tickNanos;
+			long wait = nextTick - System.nanoTime();
+			behind = wait < 0;
+			if (readingPaused)
+				selector.wakeup();
+			if (wait > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				} catch (InterruptedException exc) {
+					return;
+				}
+			} else if (-wait > 10 * tickNanos) {
+				// too far behind to catch up, continue from now
+				nextTick = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * Forget the handles of the given units that could not be added to the world, and
+	 * clear the given list.
+	 */
+	private void releaseRejectedUnits(List<Handle> adding) {
+		for (int i = 0; i < adding.size(); i++)
+			if (adding.get(i).unit.getWorld() != world)
+				releaseHandle(adding.get(i).unit);
+		adding.clear();
+	}
+
+	/**
+	 * Forget the handle of the given unit, if it has one.
+	 */
+	private void releaseHandle(Unit unit) {
+		Handle handle = handlesByUnit.remove(unit);
+		if (handle != null)
+			units.remove(handle.id);
+	}
+
+	/**
+	 * Checks whether the world is not behind and has room for more commands.
+	 */
+	private boolean hasCapacity() {
+		return !behind && world.getPendingCommandCount() < maxPendingCommands;
+	}
+
+	/* Sessions */
+	private void selectLoop() {
+		while (!closed) {
+			try {
+				selector.select();
+			} catch (IOException exc) {
+				LOGGER.log(System.Logger.Level.ERROR, "Selecting sessions failed", exc);
+				return;
+			}
+			if (readingPaused && hasCapacity())
+				resumeReading();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext() && !closed) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				try {
+					if (key.isAcceptable())
+						accept();
+					else if (key.isReadable())
+						read(key);
+					else if (key.isWritable())
+						write(key);
+				} catch (IOException exc) {
+					// the client went away or sent an invalid request
+					closeSession(key);
+				}
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, new Session(channel));
+		}
+	}
+
+	/**
+	 * Read the bytes the client of the session of the given key has sent, and handle the
+	 * requests among them.
+	 */
+	private void read(SelectionKey key) throws IOException {
+		Session session = (Session) key.attachment();
+		if (!session.input.hasRemaining()) {
+			if (session.input.capacity() >= MAX_REQUEST_SIZE)
+				throw new IOException("Request too large");
+			ByteBuffer larger = ByteBuffer.allocate(2 * session.input.capacity());
+			session.input.flip();
+			larger.put(session.input);
+			session.input = larger;
+		}
+		if (session.channel.read(session.input) < 0) {
+			closeSession(key);
+			return;
+		}
+		handleRequests(key);
+	}
+
+	/**
+	 * Handle every complete request the session of the given key has received and send
+	 * the replies. If the world has no capacity for more commands, the session stops
+	 * reading and the remaining requests are handled once it has.
+	 */
+	private void handleRequests(SelectionKey key) throws IOException {
+		Session session = (Session) key.attachment();
+		ByteBuffer input = session.input;
+		input.flip();
+		ByteArrayInputStream bytes = new ByteArrayInputStream(input.array(), input.position(), input.remaining());
+		DataInputStream in = new DataInputStream(bytes);
+		session.unhandled = false;
+		while (bytes.available() > 0 && !closed) {
+			if (!hasCapacity()) {
+				pause(key);
+				break;
+			}
+			bytes.mark(0);
+			try {
+				handle(session, in.readByte(), in, session.out);
+			} catch (EOFException exc) {
+				// the rest of the request has not arrived yet
+				bytes.reset();
+				break;
+			}
+		}
+		input.position(input.limit() - bytes.available());
+		input.compact();
+		session.output = ByteBuffer.wrap(session.replies.toByteArray());
+		session.replies.reset();
+		write(key);
+	}
+
+	/**
+	 * Send the replies not yet sent to the client of the session of the given key, and
+	 * stop reading requests of that session until they are all sent. Once they are, the
+	 * requests left to handle when the session stopped reading are handled.
+	 */
+	private void write(SelectionKey key) throws IOException {
+		Session session = (Session) key.attachment();
+		session.channel.write(session.output);
+		if (session.output.hasRemaining())
+			key.interestOps(SelectionKey.OP_WRITE);
+		else if (session.paused)
+			key.interestOps(0);
+		else if (session.unhandled)
+			handleRequests(key);
+		else
+			key.interestOps(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Stop reading the requests of the session of the given key until the world has
+	 * capacity for more commands.
+	 */
+	private void pause(SelectionKey key) {
+		Session session = (Session) key.attachment();
+		session.paused = true;
+		session.unhandled = true;
+		pausedKeys.add(key);
+		readingPaused = true;
+	}
+
+	/**
+	 * Handle the remaining requests of the sessions that stopped reading and read again,
+	 * unless they stop reading again.
+	 */
+	private void resumeReading() {
+		readingPaused = false;
+		int n = pausedKeys.size();
+		for (int i = 0; i < n; i++) {
+			SelectionKey key = pausedKeys.get(i);
+			if (!key.isValid())
+				continue;
+			Session session = (Session) key.attachment();
+			session.paused = false;
+			try {
+				if (session.output == null || !session.output.hasRemaining())
+					handleRequests(key);
+			} catch (IOException exc) {
+				closeSession(key);
+			}
+		}
+		pausedKeys.subList(0, n).clear();
+	}
+
+	/**
+	 * Close the session of the given key and forget the handles of the units created in it.
+	 */
+	private void closeSession(SelectionKey key) {
+		Session session = (Session) key.attachment();
+		key.cancel();
+		for (Integer id : session.handles) {
+			Handle handle = units.remove(id);
+			if (handle != null)
+				handlesByUnit.remove(handle.unit);
+		}
+		try {
+			session.channel.close();
+		} catch (IOException exc) {
+			// already closed
+		}
+	}
+
+	/**
+	 * Returns the unit with the given handle, or null if there is none.
+	 */
+	private Unit unit(int handle) {
+		Handle result = units.get(handle);
+		return (result == null) ? null : result.unit;
+	}
+
+	/**
+	 * Handle one request with the given opcode of the given session, reading its
+	 * arguments from the given input and writing the reply to the given output. All
+	 * arguments are read before the request has any effect.
+	 */
+	private void handle(Session session, int opcode, DataInputStream in, DataOutputStream out) throws IOException {
+		switch (opcode) {
+		case CREATE_UNIT: {
+			String name = in.readUTF();
+			int[] position = { in.readInt(), in.readInt(), in.readInt() };
+			int weight = in.readInt(), agility = in.readInt(), strength = in.readInt(), toughness = in.readInt();
+			boolean defaultBehaviour = in.readBoolean();
+			if (!OccupancyMap.isInside(position[0], position[1], position[2])) {
+				out.writeByte(INVALID_REQUEST);
+				return;
+			}
+			Unit unit;
+			try {
+				// the default behaviour is enabled once the unit is in the world, so its first
+				// choice is drawn from the generator of the world
+				unit = new Unit(name, position, weight, agility, strength, toughness, false);
+			} catch (IllegalArgumentException exc) {
+				out.writeByte(INVALID_REQUEST);
+				return;
+			}
+			Handle handle = new Handle(nextHandle.getAndIncrement(), unit);
+			units.put(handle.id, handle);
+			handlesByUnit.put(unit, handle);
+			session.handles.add(handle.id);
+			// the crowd limit of the cube is checked when the unit is added, on the ticking
+			// thread, which forgets the handle if the unit could not be added
+			world.submit(Command.addToWorld(unit));
+			addedHandles.add(handle);
+			if (defaultBehaviour)
+				world.submit(Command.setDefaultBehaviourEnabled(unit, true));
+			out.writeByte(OK);
+			out.writeInt(handle.id);
+			return;
+		}
+		case MOVE_TO: {
+			Unit unit = unit(in.readInt());
+			int[] cube = { in.readInt(), in.readInt(), in.readInt() };
+			submit(unit == null ? null : Command.moveTo(unit, cube), out);
+			return;
+		}
+		case MOVE_TO_ADJACENT: {
+			Unit unit = unit(in.readInt());
+			int dx = in.readByte(), dy = in.readByte(), dz = in.readByte();
+			submit(unit == null ? null : Command.moveToAdjacent(unit, dx, dy, dz), out);
+			return;
+		}
+		case WORK: {
+			Unit unit = unit(in.readInt());
+			submit(unit == null ? null : Command.work(unit), out);
+			return;
+		}
+		case REST: {
+			Unit unit = unit(in.readInt());
+			submit(unit == null ? null : Command.rest(unit), out);
+			return;
+		}
+		case FIGHT: {
+			Unit attacker = unit(in.readInt()), defender = unit(in.readInt());
+			submit(attacker == null || defender == null ? null : Command.fight(attacker, defender), out);
+			return;
+		}
+		case START_SPRINTING: {
+			Unit unit = unit(in.readInt());
+			submit(unit == null ? null : Command.startSprinting(unit), out);
+			return;
+		}
+		case STOP_SPRINTING: {
+			Unit unit = unit(in.readInt());
+			submit(unit == null ? null : Command.stopSprinting(unit), out);
+			return;
+		}
+		case SET_DEFAULT_BEHAVIOUR: {
+			Unit unit = unit(in.readInt());
+			boolean enabled = in.readBoolean();
+			submit(unit == null ? null : Command.setDefaultBehaviourEnabled(unit, enabled), out);
+			return;
+		}
+		case GET_STATE: {
+			Unit unit = unit(in.readInt());
+			writeState(unit, out);
+			return;
+		}
+		default:
+			throw new IOException("Unknown opcode " + opcode);
+		}
+	}
+
+	private void submit(Command command, DataOutputStream out) throws IOException {
+		if (command == null) {
+			out.writeByte(UNKNOWN_UNIT);
+			return;
+		}
+		world.submit(command);
+		out.writeByte(OK);
+	}
+
+	/**
+	 * Write the state of the given unit in the last published snapshot: the tick, the
+	 * position, the orientation, the hit and stamina points and the activity flags
+	 * (moving, sprinting, working, resting and attacking as bits 0 to 4).
+	 */
+	private void writeState(Unit unit, DataOutputStream out) throws IOException {
+		while (true) {
+			WorldSnapshot snapshot = world.getSnapshot();
+			long tick = snapshot.getTick();
+			if (tick == WorldSnapshot.WRITING) {
+				Thread.onSpinWait();
+				continue;
+			}
+			boolean known;
+			double x = 0, y = 0, z = 0, orientation = 0;
+			int hitPoints = 0, staminaPoints = 0, flags = 0;
+			try {
+				known = unit != null && snapshot.contains(unit);
+				if (known) {
+					x = snapshot.getX(unit);
+					y = snapshot.getY(unit);
+					z = snapshot.getZ(unit);
+					orientation = snapshot.getOrientation(unit);
+					hitPoints = snapshot.getCurrentHitPoints(unit);
+					staminaPoints = snapshot.getCurrentStaminaPoints(unit);
+					flags = snapshot.getActivityFlags(unit);
+				}
+			} catch (IllegalArgumentException | IndexOutOfBoundsException exc) {
+				// the snapshot was overwritten while reading
+				continue;
+			}
+			VarHandle.acquireFence();
+			if (snapshot.getTick() != tick)
+				continue;
+			if (!known) {
+				out.writeByte(UNKNOWN_UNIT);
+				return;
+			}
+			out.writeByte(OK);
+			out.writeLong(tick);
+			out.writeDouble(x);
+			out.writeDouble(y);
+			out.writeDouble(z);
+			out.writeDouble(orientation);
+			out.writeInt(hitPoints);
+			out.writeInt(staminaPoints);
+			out.writeByte(flags);
+			return;
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package hillbillies.part1.facade;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hillbillies.model.Command;
+import hillbillies.model.World;
+
+/**
+ * Tests of the facade server, with clients in the same process connecting over the
+ * loopback address.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class FacadeServerTest {
+
+	private World world;
+	private FacadeServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		world = new World();
+		server = new FacadeServer(world, 0.02, 1000);
+		server.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	private Socket connect() throws IOException {
+		return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+	}
+
+	private static void writeCreateUnit(DataOutputStream out, int x, int y, int z) throws IOException {
+		out.writeByte(FacadeServer.CREATE_UNIT);
+		out.writeUTF("TestUnit");
+		out.writeInt(x);
+		out.writeInt(y);
+		out.writeInt(z);
+		for (int attribute = 0; attribute < 4; attribute++)
+			out.writeInt(50);
+		out.writeBoolean(false);
+	}
+
+	private static int createUnit(DataOutputStream out, DataInputStream in, int x, int y, int z)
+			throws IOException {
+		writeCreateUnit(out, x, y, z);
+		out.flush();
+		assertEquals(FacadeServer.OK, in.readByte());
+		return in.readInt();
+	}
+
+	/**
+	 * Returns the reply to a state request for the unit with the given handle, after the
+	 * status byte: the tick, the position, the orientation, the hit and stamina points
+	 * and the activity flags.
+	 */
+	private static Object[] getState(DataOutputStream out, DataInputStream in, int handle) throws IOException {
+		out.writeByte(FacadeServer.GET_STATE);
+		out.writeInt(handle);
+		out.flush();
+		assertEquals(FacadeServer.OK, in.readByte());
+		return new Object[] { in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+				in.readInt(), in.readInt(), in.readByte() };
+	}
+
+	private static Object[] awaitState(DataOutputStream out, DataInputStream in, int handle)
+			throws IOException, InterruptedException {
+		for (int attempt = 0; attempt < 500; attempt++) {
+			out.writeByte(FacadeServer.GET_STATE);
+			out.writeInt(handle);
+			out.flush();
+			byte status = in.readByte();
+			if (status == FacadeServer.OK)
+				return new Object[] { in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(),
+						in.readDouble(), in.readInt(), in.readInt(), in.readByte() };
+			assertEquals(FacadeServer.UNKNOWN_UNIT, status);
+			Thread.sleep(10);
+		}
+		fail("The unit never appeared in a snapshot");
+		return null;
+	}
+
+	@Test
+	public void testCreateMoveAndGetState() throws IOException, InterruptedException {
+		try (Socket socket = connect()) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			int handle = createUnit(out, in, 3, 3, 3);
+			Object[] state = awaitState(out, in, handle);
+			assertEquals(3.5, (Double) state[1], 1e-9);
+			assertEquals(3.5, (Double) state[2], 1e-9);
+			assertEquals(3.5, (Double) state[3], 1e-9);
+			assertEquals(50, (int) (Integer) state[5]);
+
+			out.writeByte(FacadeServer.MOVE_TO);
+			out.writeInt(handle);
+			out.writeInt(10);
+			out.writeInt(10);
+			out.writeInt(3);
+			out.flush();
+			assertEquals(FacadeServer.OK, in.readByte());
+			Thread.sleep(200);
+			state = getState(out, in, handle);
+			assertTrue("The unit should be moving", ((Byte) state[7] & 1) != 0);
+			assertTrue("The unit should have left its cube", (Double) state[1] > 3.5);
+		}
+	}
+
+	@Test
+	public void testUnknownUnit() throws IOException {
+		try (Socket socket = connect()) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			out.writeByte(FacadeServer.WORK);
+			out.writeInt(12345);
+			out.writeByte(FacadeServer.GET_STATE);
+			out.writeInt(12345);
+			out.flush();
+			assertEquals(FacadeServer.UNKNOWN_UNIT, in.readByte());
+			assertEquals(FacadeServer.UNKNOWN_UNIT, in.readByte());
+		}
+	}
+
+	@Test
+	public void testRequestSplitOverSeveralWrites() throws IOException, InterruptedException {
+		try (Socket socket = connect()) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream request = new DataOutputStream(bytes);
+			writeCreateUnit(request, 5, 5, 5);
+			writeCreateUnit(request, 6, 6, 6);
+			byte[] requests = bytes.toByteArray();
+			for (byte b : requests) {
+				socket.getOutputStream().write(b);
+				socket.getOutputStream().flush();
+			}
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			assertEquals(FacadeServer.OK, in.readByte());
+			int first = in.readInt();
+			assertEquals(FacadeServer.OK, in.readByte());
+			assertEquals(first + 1, in.readInt());
+		}
+	}
+
+	@Test
+	public void testManySessionsShareThreads() throws IOException {
+		int threadsBefore = Thread.activeCount();
+		List<Socket> sockets = new ArrayList<Socket>();
+		try {
+			for (int i = 0; i < 500; i++)
+				sockets.add(connect());
+			for (int i = 0; i < sockets.size(); i++) {
+				Socket socket = sockets.get(i);
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				createUnit(out, in, i % 50, (i / 50) % 50, 0);
+			}
+			assertTrue("Sessions should not get threads of their own", Thread.activeCount() < threadsBefore + 10);
+		} finally {
+			for (Socket socket : sockets)
+				socket.close();
+		}
+	}
+
+	@Test
+	public void testClosedSessionReleasesHandles() throws IOException, InterruptedException {
+		try (Socket socket = connect()) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			createUnit(out, in, 1, 1, 1);
+			createUnit(out, in, 2, 2, 2);
+			assertEquals(2, server.getHandleCount());
+		}
+		for (int attempt = 0; attempt < 500 && server.getHandleCount() > 0; attempt++)
+			Thread.sleep(10);
+		assertEquals(0, server.getHandleCount());
+	}
+
+	@Test
+	public void testCreateUnitOutsideWorld() throws IOException {
+		try (Socket socket = connect()) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			writeCreateUnit(out, 3, 60, 3);
+			out.flush();
+			assertEquals(FacadeServer.INVALID_REQUEST, in.readByte());
+			assertEquals(0, server.getHandleCount());
+		}
+	}
+
+	@Test
+	public void testUnitInFullCubeReleasesHandle() throws IOException, InterruptedException {
+		World crowded = new World(1);
+		try (FacadeServer crowdedServer = new FacadeServer(crowded, 0.02, 1000)) {
+			crowdedServer.start();
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), crowdedServer.getPort())) {
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				int first = createUnit(out, in, 7, 7, 7);
+				int second = createUnit(out, in, 7, 7, 7);
+				awaitState(out, in, first);
+				for (int attempt = 0; attempt < 500 && crowdedServer.getHandleCount() > 1; attempt++)
+					Thread.sleep(10);
+				assertEquals(1, crowdedServer.getHandleCount());
+				assertEquals(1, crowded.getUnits().size());
+				out.writeByte(FacadeServer.GET_STATE);
+				out.writeInt(second);
+				out.flush();
+				assertEquals(FacadeServer.UNKNOWN_UNIT, in.readByte());
+			}
+		}
+	}
+
+	@Test
+	public void testFullInboxPausesSession() throws IOException {
+		World busy = new World();
+		try (FacadeServer busyServer = new FacadeServer(busy, 0.05, 1)) {
+			busyServer.start();
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), busyServer.getPort())) {
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				int handle = createUnit(out, in, 8, 8, 8);
+				for (int i = 0; i < 10; i++) {
+					out.writeByte(FacadeServer.REST);
+					out.writeInt(handle);
+				}
+				out.flush();
+				for (int i = 0; i < 10; i++)
+					assertEquals(FacadeServer.OK, in.readByte());
+				assertTrue(busy.getPendingCommandCount() <= 1);
+			}
+		}
+	}
+
+	@Test
+	public void testRemovedUnitReleasesHandle() throws IOException, InterruptedException {
+		try (Socket socket = connect()) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			int handle = createUnit(out, in, 4, 4, 4);
+			awaitState(out, in, handle);
+			world.submit(Command.removeFromWorld(world.getUnits().get(0)));
+			for (int attempt = 0; attempt < 500 && server.getHandleCount() > 0; attempt++)
+				Thread.sleep(10);
+			assertEquals(0, server.getHandleCount());
+			out.writeByte(FacadeServer.GET_STATE);
+			out.writeInt(handle);
+			out.flush();
+			assertEquals(FacadeServer.UNKNOWN_UNIT, in.readByte());
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package hillbillies.model;
+
+/**
+ * An interface for clients that want to be told about the units in a region of a world.
+ * The methods are called on the thread ticking the world and should return quickly.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public interface InterestListener {
+
+	/**
+	 * The given unit entered the region of this listener.
+	 */
+	void unitEntered(Unit unit);
+
+	/**
+	 * The given unit left the region of this listener.
+	 */
+	void unitLeft(Unit unit);
+
+	/**
+	 * The given unit moved inside the region of this listener.
+	 */
+	void unitUpdated(Unit unit);
+}
@@ -0,0 +1,297 @@
+package hillbillies.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A class keeping track of the regions of a world that are observed by clients.
+ * The world is divided in cells of CELL_SIZE cubes in every dimension, and every
+ * cell counts the regions overlapping it, so checking whether a cube is observed
+ * takes constant time. Clients can subscribe to a region with a listener; every cell
+ * keeps the listeners of the subscriptions overlapping it, and the listeners are told
+ * when units enter, leave or move in their cells. Subscriptions only cover whole cells.
+ * A listener with several subscriptions covering the same cell is told about every
+ * event in that cell once.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class InterestManager {
+
+	/**
+	 * The number of cubes in every dimension of a cell.
+	 */
+	public static final int CELL_SIZE = 10;
+
+	/**
+	 * The number of cells in every dimension of the world.
+	 */
+	public static final int CELLS = (OccupancyMap.SIZE + CELL_SIZE - 1) / CELL_SIZE;
+
+	private final World world;
+	private final int[] observers = new int[CELLS * CELLS * CELLS];
+	private final Map<Integer, int[]> regions = new HashMap<Integer, int[]>();
+	private final Map<Integer, Subscriber> subscriptions = new HashMap<Integer, Subscriber>();
+	private final Map<InterestListener, Subscriber> subscribersByListener = new IdentityHashMap<InterestListener, Subscriber>();
+	private final List<List<Subscriber>> subscribers = new ArrayList<List<Subscriber>>(CELLS * CELLS * CELLS);
+	private final AtomicInteger nextHandle = new AtomicInteger();
+
+	/**
+	 * A listener together with the number of its subscriptions covering every cell. A
+	 * listener is in the subscribers of a cell once, however many of its subscriptions
+	 * cover the cell, so it is told about every event in the cell once.
+	 */
+	private static class Subscriber {
+		final InterestListener listener;
+		final int[] coverage = new int[CELLS * CELLS * CELLS];
+		int subscriptionCount;
+
+		Subscriber(InterestListener listener) {
+			this.listener = listener;
+		}
+	}
+
+	/**
+	 * Initialize this new interest manager for the given world.
+	 */
+	InterestManager(World world) {
+		this.world = world;
+		for (int i = 0; i < CELLS * CELLS * CELLS; i++)
+			subscribers.add(new ArrayList<Subscriber>(0));
+	}
+
+	/**
+	 * Returns the index of the cell containing the cube with the given coordinates.
+	 */
+	static int cellOf(int x, int y, int z) {
+		return x / CELL_SIZE + CELLS * (y / CELL_SIZE + CELLS * (z / CELL_SIZE));
+	}
+
+	/**
+	 * Returns the index of the cell containing the cube with the given index in the
+	 * occupancy map.
+	 */
+	static int cellOfCube(int cube) {
+		int size = OccupancyMap.SIZE;
+		return cellOf(cube % size, (cube / size) % size, cube / (size * size));
+	}
+
+	/**
+	 * Returns a new handle for a region. May be called from any thread.
+	 */
+	int reserveHandle() {
+		return nextHandle.getAndIncrement();
+	}
+
+	/**
+	 * Start observing the region between the given cubes, both included. May only be
+	 * called from the thread ticking the world; other threads use World.addRegion.
+	 *
+	 * @param min
+	 *            The cube with the smallest coordinates of the region, as an array {x, y, z}.
+	 * @param max
+	 *            The cube with the largest coordinates of the region, as an array {x, y, z}.
+	 * @return A handle to stop observing the region with.
+	 * @throws IllegalArgumentException
+	 *             One of the cubes is not inside the game world, or min is larger then max.
+	 */
+	public int addRegion(int[] min, int[] max) throws IllegalArgumentException {
+		int[] cells = cellsOf(min, max);
+		int handle = reserveHandle();
+		addRegion(handle, cells, null);
+		return handle;
+	}
+
+	/**
+	 * Stop observing the region with the given handle. If the region was added by
+	 * subscribing, the listener is told that the units left that are in cells no other
+	 * subscription of the listener covers. May only be called from the thread ticking
+	 * the world; other threads use World.removeRegion.
+	 *
+	 * @param handle
+	 *            The handle returned when the region was added.
+	 * @throws IllegalArgumentException
+	 *             There is no region with the given handle.
+	 */
+	public void removeRegion(int handle) throws IllegalArgumentException {
+		int[] cells = regions.remove(handle);
+		if (cells == null)
+			throw new IllegalArgumentException();
+		forEachCell(cells, -1);
+		Subscriber subscriber = subscriptions.remove(handle);
+		if (subscriber == null)
+			return;
+		for (int z = cells[2]; z <= cells[5]; z++)
+			for (int y = cells[1]; y <= cells[4]; y++)
+				for (int x = cells[0]; x <= cells[3]; x++) {
+					int cell = x + CELLS * (y + CELLS * z);
+					if (--subscriber.coverage[cell] > 0)
+						continue;
+					subscribers.get(cell).remove(subscriber);
+					for (Unit unit : unitsIn(cell))
+						subscriber.listener.unitLeft(unit);
+				}
+		if (--subscriber.subscriptionCount == 0)
+			subscribersByListener.remove(subscriber.listener);
+	}
+
+	/**
+	 * Subscribe the given listener to the region between the given cubes, both included,
+	 * extended to whole cells. The listener is told right away about the units already
+	 * in the region that it was not told about by another subscription. May only be
+	 * called from the thread ticking the world; other threads use World.subscribe.
+	 *
+	 * @param min
+	 *            The cube with the smallest coordinates of the region, as an array {x, y, z}.
+	 * @param max
+	 *            The cube with the largest coordinates of the region, as an array {x, y, z}.
+	 * @param listener
+	 *            The listener to tell about the units in the region.
+	 * @return A handle to stop the subscription with, using removeRegion.
+	 * @throws IllegalArgumentException
+	 *             One of the cubes is not inside the game world, or min is larger then max,
+	 *             or the listener is null.
+	 */
+	public int subscribe(int[] min, int[] max, InterestListener listener) throws IllegalArgumentException {
+		if (listener == null)
+			throw new IllegalArgumentException();
+		int[] cells = cellsOf(min, max);
+		int handle = reserveHandle();
+		addRegion(handle, cells, listener);
+		return handle;
+	}
+
+	/**
+	 * Add the region covering the given range of cells with the given handle, subscribing
+	 * the given listener to it if it is not null.
+	 */
+	void addRegion(int handle, int[] cells, InterestListener listener) {
+		regions.put(handle, cells);
+		forEachCell(cells, 1);
+		if (listener == null)
+			return;
+		Subscriber subscriber = subscribersByListener.get(listener);
+		if (subscriber == null) {
+			subscriber = new Subscriber(listener);
+			subscribersByListener.put(listener, subscriber);
+		}
+		subscriber.subscriptionCount++;
+		subscriptions.put(handle, subscriber);
+		for (int z = cells[2]; z <= cells[5]; z++)
+			for (int y = cells[1]; y <= cells[4]; y++)
+				for (int x = cells[0]; x <= cells[3]; x++) {
+					int cell = x + CELLS * (y + CELLS * z);
+					if (subscriber.coverage[cell]++ > 0)
+						continue;
+					subscribers.get(cell).add(subscriber);
+					for (Unit unit : unitsIn(cell))
+						listener.unitEntered(unit);
+				}
+	}
+
+	/**
+	 * Checks whether there is a region with the given handle.
+	 */
+	boolean hasRegion(int handle) {
+		return regions.containsKey(handle);
+	}
+
+	/**
+	 * Returns the units in the cell with the given index.
+	 */
+	private List<Unit> unitsIn(int cell) {
+		List<Unit> result = new ArrayList<Unit>();
+		int cx = cell % CELLS, cy = (cell / CELLS) % CELLS, cz = cell / (CELLS * CELLS);
+		OccupancyMap occupancyMap = world.getOccupancyMap();
+		for (int z = cz * CELL_SIZE; z < Math.min(OccupancyMap.SIZE, (cz + 1) * CELL_SIZE); z++)
+			for (int y = cy * CELL_SIZE; y < Math.min(OccupancyMap.SIZE, (cy + 1) * CELL_SIZE); y++)
+				for (int x = cx * CELL_SIZE; x < Math.min(OccupancyMap.SIZE, (cx + 1) * CELL_SIZE); x++)
+					for (int id = occupancyMap.firstUnitIn(OccupancyMap.indexOf(x, y, z)); id != -1; id = occupancyMap
+							.nextUnit(id))
+						result.add(world.getUnit(id));
+		return result;
+	}
+
+	/* Events */
+	/**
+	 * Tell the listeners of the cell with the given index that the given unit entered it.
+	 */
+	void unitAdded(Unit unit, int cell) {
+		List<Subscriber> cellSubscribers = subscribers.get(cell);
+		for (int i = 0; i < cellSubscribers.size(); i++)
+			cellSubscribers.get(i).listener.unitEntered(unit);
+	}
+
+	/**
+	 * Tell the listeners of the cell with the given index that the given unit left it.
+	 */
+	void unitRemoved(Unit unit, int cell) {
+		List<Subscriber> cellSubscribers = subscribers.get(cell);
+		for (int i = 0; i < cellSubscribers.size(); i++)
+			cellSubscribers.get(i).listener.unitLeft(unit);
+	}
+
+	/**
+	 * Tell the listeners of the given cells that the given unit moved from the old cell
+	 * to the new cell. Listeners of both cells are told the unit was updated, listeners of
+	 * only the old cell that it left and listeners of only the new cell that it entered.
+	 */
+	void unitMoved(Unit unit, int oldCell, int newCell) {
+		List<Subscriber> oldSubscribers = subscribers.get(oldCell);
+		if (oldCell == newCell) {
+			for (int i = 0; i < oldSubscribers.size(); i++)
+				oldSubscribers.get(i).listener.unitUpdated(unit);
+			return;
+		}
+		List<Subscriber> newSubscribers = subscribers.get(newCell);
+		for (int i = 0; i < oldSubscribers.size(); i++) {
+			Subscriber subscriber = oldSubscribers.get(i);
+			if (subscriber.coverage[newCell] > 0)
+				subscriber.listener.unitUpdated(unit);
+			else
+				subscriber.listener.unitLeft(unit);
+		}
+		for (int i = 0; i < newSubscribers.size(); i++) {
+			Subscriber subscriber = newSubscribers.get(i);
+			if (subscriber.coverage[oldCell] == 0)
+				subscriber.listener.unitEntered(unit);
+		}
+	}
+
+	/**
+	 * Checks whether the cube with the given coordinates lies in an observed cell.
+	 */
+	public boolean isObserved(int x, int y, int z) {
+		return observers[cellOf(x, y, z)] > 0;
+	}
+
+	/**
+	 * Checks whether the cell with the given index is observed.
+	 */
+	boolean isObservedCell(int cell) {
+		return observers[cell] > 0;
+	}
+
+	/**
+	 * Returns the range of cells covering the region between the given cubes, as an
+	 * array {minX, minY, minZ, maxX, maxY, maxZ}.
+	 */
+	static int[] cellsOf(int[] min, int[] max) throws IllegalArgumentException {
+		if (!OccupancyMap.isInside(min[0], min[1], min[2]) || !OccupancyMap.isInside(max[0], max[1], max[2])
+				|| min[0] > max[0] || min[1] > max[1] || min[2] > max[2])
+			throw new IllegalArgumentException();
+		return new int[] { min[0] / CELL_SIZE, min[1] / CELL_SIZE, min[2] / CELL_SIZE, max[0] / CELL_SIZE,
+				max[1] / CELL_SIZE, max[2] / CELL_SIZE };
+	}
+
+	private void forEachCell(int[] cells, int delta) {
+		for (int z = cells[2]; z <= cells[5]; z++)
+			for (int y = cells[1]; y <= cells[4]; y++)
+				for (int x = cells[0]; x <= cells[3]; x++)
+					observers[x + CELLS * (y + CELLS * z)] += delta;
+	}
+}
@@ -0,0 +1,293 @@
+package hillbillies.part1.facade;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import hillbillies.model.Command;
+import hillbillies.model.Unit;
+import hillbillies.model.UnitAggregates;
+import hillbillies.model.World;
+import ogp.framework.util.ModelException;
+
+/**
+ * A headless driver running scripted scenarios on a world and reporting how long the
+ * ticks took, how much was allocated and collected, and a checksum of the final state of
+ * all units. A scenario is given as arguments of the form name=value:
+ *
+ * units=N            the number of units (default 1000)
+ * ticks=T            the number of ticks to run (default 500)
+ * dt=S               the length of a tick in seconds (default 0.1)
+ * seed=S             the seed for placing the units and choosing their attributes, and
+ *                    of the world in lockstep mode (default 0)
+ * attributes=A       fixed, uniform or gaussian (default uniform)
+ * defaultBehaviour=B true or false (default true)
+ * bulkMovement=B     true or false (default false)
+ * levelOfDetail=B    true or false (default false)
+ * parallel=B         whether large waves of attacks are resolved in parallel (default false)
+ * lockstep=B         true or false (default false)
+ * clusters=C         the number of battle clusters of two factions fighting each other (default 0)
+ * clusterSize=K      the number of units in one battle cluster (default 16)
+ * warmup=W           the number of ticks to run before measuring (default 50)
+ *
+ * The units are created through the facade, like the game creates them. Every tick
+ * advances the whole world once, like the game loop does, and the fights of the battle
+ * clusters are submitted as commands. The report starts with the settings the world ran
+ * with: the movement kernel, level of detail and parallel combat. In lockstep mode the
+ * world runs with the given seed, so the same scenario always ends in the same state and
+ * the checksum, the state hash of the world, is the same in every run. The checksum is
+ * only reported in lockstep mode.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class LoadSimulation {
+
+	private int unitCount = 1000, ticks = 500, warmup = 50, clusters = 0, clusterSize = 16;
+	private double dt = 0.1;
+	private long seed = 0;
+	private String attributes = "uniform";
+	private boolean defaultBehaviour = true, bulkMovement = false, levelOfDetail = false, parallel = false,
+			lockstep = false;
+
+	private final Facade facade = new Facade();
+	private final World world = facade.getWorld();
+	private final List<Unit[]> fighters = new ArrayList<Unit[]>();
+
+	public static void main(String[] args) {
+		LoadSimulation simulation = new LoadSimulation();
+		for (String arg : args)
+			simulation.set(arg);
+		simulation.run();
+	}
+
+	/**
+	 * Set a parameter of the scenario from an argument of the form name=value.
+	 *
+	 * @throws IllegalArgumentException
+	 *             The argument is not of the form name=value, the name is unknown or the
+	 *             value is not valid for the name.
+	 */
+	void set(String arg) throws IllegalArgumentException {
+		int split = arg.indexOf('=');
+		if (split < 0)
+			throw new IllegalArgumentException(arg);
+		String name = arg.substring(0, split), value = arg.substring(split + 1);
+		switch (name) {
+		case "units":
+			unitCount = Integer.parseInt(value);
+			break;
+		case "ticks":
+			ticks = Integer.parseInt(value);
+			break;
+		case "warmup":
+			warmup = Integer.parseInt(value);
+			break;
+		case "dt":
+			dt = Double.parseDouble(value);
+			break;
+		case "seed":
+			seed = Long.parseLong(value);
+			break;
+		case "attributes":
+			if (!value.equals("fixed") && !value.equals("uniform") && !value.equals("gaussian"))
+				throw new IllegalArgumentException(arg);
+			attributes = value;
+			break;
+		case "defaultBehaviour":
+			defaultBehaviour = parseBoolean(arg, value);
+			break;
+		case "bulkMovement":
+			bulkMovement = parseBoolean(arg, value);
+			break;
+		case "levelOfDetail":
+			levelOfDetail = parseBoolean(arg, value);
+			break;
+		case "parallel":
+			parallel = parseBoolean(arg, value);
+			break;
+		case "lockstep":
+			lockstep = parseBoolean(arg, value);
+			break;
+		case "clusters":
+			clusters = Integer.parseInt(value);
+			break;
+		case "clusterSize":
+			clusterSize = Integer.parseInt(value);
+			break;
+		default:
+			throw new IllegalArgumentException(arg);
+		}
+	}
+
+	private static boolean parseBoolean(String arg, String value) throws IllegalArgumentException {
+		if (!value.equals("true") && !value.equals("false"))
+			throw new IllegalArgumentException(arg);
+		return value.equals("true");
+	}
+
+	/**
+	 * Build the scenario, run it and print the report.
+	 */
+	void run() {
+		if (lockstep)
+			world.enableLockstep(seed);
+		world.setBulkMovementEnabled(bulkMovement);
+		world.setLevelOfDetailEnabled(levelOfDetail);
+		world.getCombatResolver().setParallel(parallel);
+		Random random = new Random(seed);
+		createUnits(random);
+		createClusters(random);
+		// the units make their first choice once they are all in the world, with the
+		// generator of the world in lockstep mode
+		if (defaultBehaviour)
+			for (Unit unit : world.getUnits())
+				unit.setDefaultBehaviourEnabled(true);
+		for (int t = 0; t < warmup; t++)
+			tick();
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long allocatedBefore = allocatedBytes(threads);
+		long gcCountBefore = gcCount(), gcTimeBefore = gcTime();
+		long[] latencies = new long[ticks];
+		long start = System.nanoTime();
+		for (int t = 0; t < ticks; t++) {
+			long tickStart = System.nanoTime();
+			tick();
+			latencies[t] = System.nanoTime() - tickStart;
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes(threads) - allocatedBefore;
+
+		Arrays.sort(latencies);
+		UnitAggregates aggregates = world.getAggregates();
+		int unitTotal = aggregates.getUnitCount();
+		System.out.printf(
+				"units %d, ticks %d, dt %.3f, seed %d, attributes %s, default behaviour %b, bulk movement %b, clusters %d%n",
+				unitTotal, ticks, dt, seed, attributes, defaultBehaviour, bulkMovement, clusters);
+		System.out.printf("kernel %s, level of detail %s, parallel combat %b, lockstep %s%n", kernel(),
+				world.isLevelOfDetailEnabled() ? "every " + world.getLevelOfDetailInterval() + " ticks" : "off",
+				world.getCombatResolver().isParallel() && !world.isLockstep(),
+				world.isLockstep() ? "seed " + seed : "off");
+		System.out.printf("tick ms: p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f  mean %.3f%n",
+				percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+				percentile(latencies, 0.999), ticks == 0 ? 0 : latencies[ticks - 1] / 1e6,
+				ticks == 0 ? 0 : elapsed / 1e6 / ticks);
+		if (allocatedBefore >= 0)
+			System.out.printf("allocated: %d bytes, %.1f bytes per unit per tick%n", allocated,
+					ticks == 0 || unitTotal == 0 ? 0.0 : (double) allocated / ticks / unitTotal);
+		System.out.printf("gc: %d collections, %d ms%n", gcCount() - gcCountBefore, gcTime() - gcTimeBefore);
+		System.out.printf("activities: moving %d, working %d, resting %d, attacking %d%n",
+				aggregates.getMovingCount(), aggregates.getWorkingCount(), aggregates.getRestingCount(),
+				aggregates.getAttackingCount());
+		if (world.isLockstep())
+			System.out.printf("checksum: %016x%n", world.getStateHash());
+	}
+
+	/**
+	 * Returns the name of the movement kernel of the world: none, scalar or vector.
+	 */
+	private String kernel() {
+		if (!world.isBulkMovementEnabled())
+			return "none";
+		return world.isVectorizedMovement() ? "vector" : "scalar";
+	}
+
+	/**
+	 * Create a unit in the world through the facade.
+	 */
+	private Unit createUnit(String name, int[] position, int weight, int agility, int strength, int toughness) {
+		try {
+			return facade.createUnit(name, position, weight, agility, strength, toughness, false);
+		} catch (ModelException exc) {
+			throw new IllegalStateException(exc);
+		}
+	}
+
+	private void createUnits(Random random) {
+		for (int i = 0; i < unitCount; i++) {
+			int[] position = { random.nextInt(50), random.nextInt(50), random.nextInt(50) };
+			int agility = attribute(random), strength = attribute(random), toughness = attribute(random);
+			int weight = Math.max(attribute(random), (agility + strength + 1) / 2);
+			createUnit("Unit", position, weight, agility, strength, toughness);
+		}
+	}
+
+	/**
+	 * Create the battle clusters: units of two factions packed in a few adjacent cubes,
+	 * every unit of the first faction paired with a unit of the second one to fight.
+	 */
+	private void createClusters(Random random) {
+		for (int c = 0; c < clusters; c++) {
+			int x = 1 + random.nextInt(47), y = 1 + random.nextInt(47), z = 1 + random.nextInt(47);
+			Unit[] cluster = new Unit[clusterSize];
+			for (int i = 0; i < clusterSize; i++) {
+				int[] position = { x + i % 2, y + (i / 2) % 2, z };
+				cluster[i] = createUnit("Fighter", position, 50, 50, 50, 50);
+				cluster[i].setFaction(i % 2);
+			}
+			fighters.add(cluster);
+		}
+	}
+
+	private int attribute(Random random) {
+		switch (attributes) {
+		case "fixed":
+			return 50;
+		case "gaussian":
+			return (int) Math.max(25, Math.min(100, Math.round(62.5 + 12.5 * random.nextGaussian())));
+		default:
+			return 25 + random.nextInt(76);
+		}
+	}
+
+	/**
+	 * Let the fighters of every cluster attack their opponent again when they are done
+	 * attacking, and advance the world once.
+	 */
+	private void tick() {
+		for (Unit[] cluster : fighters)
+			for (int i = 0; i + 1 < cluster.length; i += 2)
+				if (!cluster[i].isAttacking() && cluster[i].isHostileTo(cluster[i + 1]))
+					world.submit(Command.fight(cluster[i], cluster[i + 1]));
+		world.advanceTime(dt);
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0)
+			return 0;
+		int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread, or -1 if the JVM does
+	 * not measure it.
+	 */
+	private static long allocatedBytes(ThreadMXBean threads) {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean measured = (com.sun.management.ThreadMXBean) threads;
+			if (measured.isThreadAllocatedMemorySupported() && measured.isThreadAllocatedMemoryEnabled())
+				return measured.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, collector.getCollectionCount());
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(0, collector.getCollectionTime());
+		return time;
+	}
+}
@@ -0,0 +1,33 @@
+package hillbillies.model;
+
+/**
+ * An interface for computing one movement step of many units at once. The units
+ * are given as arrays with one element per unit.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+interface MovementKernel {
+
+	/**
+	 * Move the units from index from up to index to a step of speed*dt in a straight line towards their target.
+	 *
+	 * @param x, y, z
+	 *            The positions of the units, overwritten with their new positions.
+	 * @param tx, ty, tz
+	 *            The target positions of the units.
+	 * @param speed
+	 *            The speeds of the units.
+	 * @param dt
+	 *            The duration of the step, in seconds.
+	 * @param from
+	 *            The index of the first unit to move.
+	 * @param to
+	 *            The index after the last unit to move.
+	 * @param arrived
+	 *            Set to true for the units that reach their target in this step. Their new
+	 *            position is their target position.
+	 */
+	void step(double[] x, double[] y, double[] z, double[] tx, double[] ty, double[] tz, double[] speed, double dt,
+			int from, int to, boolean[] arrived);
+}
@@ -0,0 +1,348 @@
+package hillbillies.model;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+import be.kuleuven.cs.som.annotate.*;
+
+/**
+ * A class of occupancy maps keeping track of which units are in which cube of
+ * the game world. Every cube has a counter and a small list of the units in it,
+ * stored as linked lists in primitive arrays so that entering or leaving a cube
+ * takes constant time. A unit that starts moving to another cube reserves it, and
+ * a reserved cube counts as occupied until the unit enters it or stops moving.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ * @invar The number of units in a cube is never negative.
+ * 	   | getOccupancy(x,y,z) >= 0
+ */
+public class OccupancyMap {
+
+	/**
+	 * The number of cubes in each dimension of the game world.
+	 */
+	public static final int SIZE = 50;
+
+	/**
+	 * The crowd limit of a cube that has no crowd limit.
+	 */
+	public static final int NO_CROWD_LIMIT = Integer.MAX_VALUE;
+
+	private static final int NONE = -1;
+
+	private final int[] count = new int[SIZE * SIZE * SIZE];
+	private final int[] head = new int[SIZE * SIZE * SIZE];
+	private final int[] reserved = new int[SIZE * SIZE * SIZE];
+	private int[] next = new int[0], prev = new int[0], cubeOf = new int[0], reservationOf = new int[0];
+	private int[] crowdLimits;
+	private int crowdLimit;
+
+	/**
+	 * Initialize this new occupancy map without units and with the given crowd
+	 * limit for all cubes.
+	 *
+	 * @param crowdLimit
+	 *            The maximum number of units allowed in one cube.
+	 * @effect The crowd limit of all cubes is set to the given crowd limit.
+	 * 		| new.setCrowdLimit(crowdLimit)
+	 */
+	public OccupancyMap(int crowdLimit) throws IllegalArgumentException {
+		Arrays.fill(head, NONE);
+		setCrowdLimit(crowdLimit);
+	}
+
+	/**
+	 * Returns the index of the cube with the given coordinates.
+	 *
+	 * @return The cube coordinates flattened to a single index.
+	 * 		| x + SIZE*(y + SIZE*z)
+	 */
+	public static int indexOf(int x, int y, int z) {
+		return x + SIZE * (y + SIZE * z);
+	}
+
+	/**
+	 * Checks whether the cube with the given coordinates lies inside the game world.
+	 *
+	 * @return True if and only if all coordinates are in the range 0..SIZE-1.
+	 * 		| (0<=x && x<SIZE) && (0<=y && y<SIZE) && (0<=z && z<SIZE)
+	 */
+	public static boolean isInside(int x, int y, int z) {
+		return 0 <= x && x < SIZE && 0 <= y && y < SIZE && 0 <= z && z < SIZE;
+	}
+
+	/* Crowd limits */
+	/**
+	 * Returns the crowd limit used for cubes without a crowd limit of their own.
+	 */
+	@Basic
+	public int getCrowdLimit() {
+		return this.crowdLimit;
+	}
+
+	/**
+	 * Set the crowd limit of all cubes without a crowd limit of their own.
+	 *
+	 * @param crowdLimit
+	 *            The new crowd limit.
+	 * @post The crowd limit is equal to the given crowd limit.
+	 * 		| new.getCrowdLimit() == crowdLimit
+	 * @throws IllegalArgumentException
+	 *             The given crowd limit is smaller then 1.
+	 *             | crowdLimit < 1
+	 */
+	public void setCrowdLimit(int crowdLimit) throws IllegalArgumentException {
+		if (crowdLimit < 1)
+			throw new IllegalArgumentException();
+		this.crowdLimit = crowdLimit;
+	}
+
+	/**
+	 * Returns the crowd limit of the cube with the given coordinates.
+	 *
+	 * @return The crowd limit of the given cube if it has one, otherwise the
+	 *         general crowd limit.
+	 */
+	public int getCrowdLimit(int x, int y, int z) {
+		if (crowdLimits == null || crowdLimits[indexOf(x, y, z)] == 0)
+			return this.crowdLimit;
+		return crowdLimits[indexOf(x, y, z)];
+	}
+
+	/**
+	 * Set the crowd limit of the cube with the given coordinates.
+	 *
+	 * @param limit
+	 *            The new crowd limit of the cube, or 0 to use the general crowd
+	 *            limit again.
+	 * @post The crowd limit of the given cube is equal to the given limit.
+	 * 		| if (limit != 0)
+	 * 		|  then new.getCrowdLimit(x,y,z) == limit
+	 * @throws IllegalArgumentException
+	 *             The cube is not inside the game world or the limit is negative.
+	 *             | !isInside(x,y,z) || limit < 0
+	 */
+	public void setCrowdLimit(int x, int y, int z, int limit) throws IllegalArgumentException {
+		if (!isInside(x, y, z) || limit < 0)
+			throw new IllegalArgumentException();
+		if (crowdLimits == null) {
+			if (limit == 0)
+				return;
+			crowdLimits = new int[count.length];
+		}
+		crowdLimits[indexOf(x, y, z)] = limit;
+	}
+
+	/* Queries */
+	/**
+	 * Returns the number of units in the cube with the given coordinates.
+	 */
+	public int getOccupancy(int x, int y, int z) {
+		return count[indexOf(x, y, z)];
+	}
+
+	/**
+	 * Checks whether there are no units in the cube with the given coordinates.
+	 *
+	 * @return True if and only if the given cube is inside the game world and empty.
+	 * 		| isInside(x,y,z) && getOccupancy(x,y,z) == 0
+	 */
+	public boolean isFree(int x, int y, int z) {
+		return isInside(x, y, z) && count[indexOf(x, y, z)] == 0;
+	}
+
+	/**
+	 * Returns the number of units moving to the cube with the given coordinates that
+	 * reserved it and did not enter it yet.
+	 */
+	public int getReservations(int x, int y, int z) {
+		return reserved[indexOf(x, y, z)];
+	}
+
+	/**
+	 * Checks whether another unit may enter the cube with the given coordinates.
+	 *
+	 * @return True if and only if the given cube is inside the game world and
+	 *         holds less units then its crowd limit, counting the units that
+	 *         reserved it.
+	 * 		| isInside(x,y,z)
+	 * 		|  && getOccupancy(x,y,z) + getReservations(x,y,z) < getCrowdLimit(x,y,z)
+	 */
+	public boolean canEnter(int x, int y, int z) {
+		if (!isInside(x, y, z))
+			return false;
+		int cube = indexOf(x, y, z);
+		return count[cube] + reserved[cube] < getCrowdLimit(x, y, z);
+	}
+
+	/**
+	 * Returns the id of the first unit in the cube with the given index, or -1
+	 * if the cube is empty.
+	 */
+	int firstUnitIn(int cube) {
+		return head[cube];
+	}
+
+	/**
+	 * Returns the id of the unit following the unit with the given id in the
+	 * same cube, or -1 if there is none.
+	 */
+	int nextUnit(int id) {
+		return next[id];
+	}
+
+	/**
+	 * Returns the index of the cube the unit with the given id is registered in,
+	 * or -1 if it is not registered.
+	 */
+	int cubeOf(int id) {
+		return id < cubeOf.length ? cubeOf[id] : NONE;
+	}
+
+	/**
+	 * Returns the index of the cube the unit with the given id reserved, or -1 if it
+	 * did not reserve a cube.
+	 */
+	int reservationOf(int id) {
+		return id < reservationOf.length ? reservationOf[id] : NONE;
+	}
+
+	/**
+	 * Find the units nearest to the cube with the given coordinates. The distance
+	 * between two cubes is the largest difference of their coordinates, so units in
+	 * adjacent cubes are at distance 1. The cubes are searched in shells of growing
+	 * distance, which only visits the cubes up to the distance of the k-th nearest unit.
+	 *
+	 * @param radius
+	 *            The maximal distance of the units to find.
+	 * @param k
+	 *            The maximal number of units to find.
+	 * @param filter
+	 *            The condition on the ids of the units to find.
+	 * @param result
+	 *            The array to store the ids of the units found in, nearest first.
+	 * @return The number of units found, at most k and at most the length of result.
+	 */
+	int nearestUnits(int x, int y, int z, int radius, int k, IntPredicate filter, int[] result) {
+		k = Math.min(k, result.length);
+		int found = 0;
+		for (int r = 0; r <= radius && found < k; r++) {
+			for (int cz = Math.max(0, z - r); cz <= Math.min(SIZE - 1, z + r); cz++) {
+				for (int cy = Math.max(0, y - r); cy <= Math.min(SIZE - 1, y + r); cy++) {
+					boolean onFace = Math.abs(cz - z) == r || Math.abs(cy - y) == r;
+					int step = (onFace || r == 0) ? 1 : 2 * r;
+					for (int cx = x - r; cx <= x + r && found < k; cx += step) {
+						if (cx < 0 || cx >= SIZE)
+							continue;
+						for (int id = head[indexOf(cx, cy, cz)]; id != NONE && found < k; id = next[id])
+							if (filter.test(id))
+								result[found++] = id;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/* Transitions */
+	/**
+	 * Register the unit with the given id in the cube with the given index.
+	 *
+	 * @post The unit is the first unit in the given cube and the occupancy of
+	 *       the cube is increased by one.
+	 */
+	void enter(int id, int cube) {
+		ensureCapacity(id);
+		int first = head[cube];
+		next[id] = first;
+		prev[id] = NONE;
+		if (first != NONE)
+			prev[first] = id;
+		head[cube] = id;
+		cubeOf[id] = cube;
+		count[cube]++;
+	}
+
+	/**
+	 * Remove the unit with the given id from the cube it is registered in.
+	 *
+	 * @post The unit is no longer registered in any cube and the occupancy of
+	 *       its cube is decreased by one.
+	 * @effect | release(id)
+	 */
+	void leave(int id) {
+		release(id);
+		int cube = cubeOf(id);
+		if (cube == NONE)
+			return;
+		if (prev[id] != NONE)
+			next[prev[id]] = next[id];
+		else
+			head[cube] = next[id];
+		if (next[id] != NONE)
+			prev[next[id]] = prev[id];
+		cubeOf[id] = NONE;
+		count[cube]--;
+	}
+
+	/**
+	 * Move the unit with the given id to the cube with the given index.
+	 *
+	 * @effect The unit leaves its current cube and enters the given cube, unless
+	 *         it is already registered in the given cube. The reservation of the
+	 *         unit is released when it enters the cube it reserved.
+	 */
+	void move(int id, int cube) {
+		if (cubeOf(id) == cube)
+			return;
+		int reservation = reservationOf(id);
+		leave(id);
+		enter(id, cube);
+		if (reservation != NONE && reservation != cube) {
+			reservationOf[id] = reservation;
+			reserved[reservation]++;
+		}
+	}
+
+	/**
+	 * Reserve the cube with the given index for the unit with the given id, which
+	 * starts moving to it.
+	 *
+	 * @effect The previous reservation of the unit is released.
+	 * 		| release(id)
+	 * @post | new.reservationOf(id) == cube
+	 */
+	void reserve(int id, int cube) {
+		ensureCapacity(id);
+		release(id);
+		reservationOf[id] = cube;
+		reserved[cube]++;
+	}
+
+	/**
+	 * Release the cube reserved by the unit with the given id, if any.
+	 *
+	 * @post | new.reservationOf(id) == -1
+	 */
+	void release(int id) {
+		int cube = reservationOf(id);
+		if (cube == NONE)
+			return;
+		reservationOf[id] = NONE;
+		reserved[cube]--;
+	}
+
+	private void ensureCapacity(int id) {
+		if (id < cubeOf.length)
+			return;
+		int capacity = Math.max(id + 1, 2 * cubeOf.length);
+		next = Arrays.copyOf(next, capacity);
+		prev = Arrays.copyOf(prev, capacity);
+		int oldLength = cubeOf.length;
+		cubeOf = Arrays.copyOf(cubeOf, capacity);
+		Arrays.fill(cubeOf, oldLength, capacity, NONE);
+		reservationOf = Arrays.copyOf(reservationOf, capacity);
+		Arrays.fill(reservationOf, oldLength, capacity, NONE);
+	}
+}
@@ -0,0 +1,16 @@
+package hillbillies.model;
+
+/**
+ * An interface for clients that want to be told when units are removed from a world.
+ * The method is called on the thread ticking the world and should return quickly.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public interface RemovalListener {
+
+	/**
+	 * The given unit was removed from the world of this listener.
+	 */
+	void unitRemoved(Unit unit);
+}
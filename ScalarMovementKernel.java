@@ -0,0 +1,32 @@
+package hillbillies.model;
+
+/**
+ * A class of movement kernels moving the units one by one.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+class ScalarMovementKernel implements MovementKernel {
+
+	@Override
+	public void step(double[] x, double[] y, double[] z, double[] tx, double[] ty, double[] tz, double[] speed,
+			double dt, int from, int to, boolean[] arrived) {
+		for (int i = from; i < to; i++) {
+			double dx = tx[i] - x[i], dy = ty[i] - y[i], dz = tz[i] - z[i];
+			double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+			double step = speed[i] * dt;
+			if (distance > step) {
+				double scale = step / distance;
+				x[i] += dx * scale;
+				y[i] += dy * scale;
+				z[i] += dz * scale;
+				arrived[i] = false;
+			} else {
+				x[i] = tx[i];
+				y[i] = ty[i];
+				z[i] = tz[i];
+				arrived[i] = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package hillbillies.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import be.kuleuven.cs.som.annotate.*;
+
+/**
+ * A class of game worlds divided into shards along the x axis. Every shard is a world of
+ * its own owning the cubes in a slab of x coordinates, and all shards advance at the same
+ * time, each on its own thread. When a unit moves into a cube owned by another shard, it
+ * is handed off to that shard at the end of the tick. Attacks on units in another shard
+ * start and are resolved at the end of the tick as well, after all shards have advanced,
+ * and commands given to a unit that was handed off are passed on to its new shard.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ * @invar Every unit of a shard is in a cube owned by that shard at the end of every tick.
+ */
+public class ShardedWorld {
+
+	private final World[] shards;
+	private boolean parallel = true;
+	private int handOffCount, borderAttackCount;
+
+	/**
+	 * Initialize this new sharded world with the given number of shards without units.
+	 *
+	 * @param shardCount
+	 *            The number of shards.
+	 * @post | new.getShardCount() == shardCount
+	 * @throws IllegalArgumentException
+	 *             | shardCount < 1 || shardCount > OccupancyMap.SIZE
+	 */
+	public ShardedWorld(int shardCount) throws IllegalArgumentException {
+		if (shardCount < 1 || shardCount > OccupancyMap.SIZE)
+			throw new IllegalArgumentException();
+		shards = new World[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new World();
+			shards[i].setShard(this, minX(i), minX(i + 1));
+		}
+	}
+
+	private int minX(int shard) {
+		return shard * OccupancyMap.SIZE / shards.length;
+	}
+
+	/**
+	 * Returns the number of shards of this sharded world.
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Returns the shard with the given index.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             | index < 0 || index >= getShardCount()
+	 */
+	public World getShard(int index) throws IndexOutOfBoundsException {
+		return shards[index];
+	}
+
+	/**
+	 * Returns the index of the shard owning the cubes with the given x coordinate.
+	 *
+	 * @throws IllegalArgumentException
+	 *             | x < 0 || x >= OccupancyMap.SIZE
+	 */
+	public int shardOf(int x) throws IllegalArgumentException {
+		if (x < 0 || x >= OccupancyMap.SIZE)
+			throw new IllegalArgumentException();
+		return ((x + 1) * shards.length - 1) / OccupancyMap.SIZE;
+	}
+
+	/**
+	 * Returns whether the shards advance in parallel.
+	 */
+	@Basic
+	public boolean isParallel() {
+		return this.parallel;
+	}
+
+	/**
+	 * Set whether the shards advance in parallel.
+	 *
+	 * @post | new.isParallel() == parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Returns the units of all shards, shard by shard.
+	 */
+	public List<Unit> getUnits() {
+		List<Unit> result = new ArrayList<Unit>();
+		for (World shard : shards)
+			result.addAll(shard.getUnits());
+		return result;
+	}
+
+	/**
+	 * Returns the number of units handed off to another shard in the last tick.
+	 */
+	public int getHandOffCount() {
+		return this.handOffCount;
+	}
+
+	/**
+	 * Returns the number of attacks across a shard border resolved in the last tick.
+	 */
+	public int getBorderAttackCount() {
+		return this.borderAttackCount;
+	}
+
+	/**
+	 * Add the given unit to the shard owning the cube it occupies.
+	 *
+	 * @effect | getShard(shardOf(unit.getCubeCoordinate()[0])).addUnit(unit)
+	 */
+	public void addUnit(Unit unit) throws IllegalArgumentException {
+		shards[shardOf(unit.getCubeCoordinate()[0])].addUnit(unit);
+	}
+
+	/**
+	 * Remove the given unit from its shard.
+	 *
+	 * @throws IllegalArgumentException
+	 *             The unit does not belong to a shard of this sharded world.
+	 *             | unit.getWorld() == null || unit.getWorld().getShardedWorld() != this
+	 */
+	public void removeUnit(Unit unit) throws IllegalArgumentException {
+		World world = unit.getWorld();
+		if (world == null || world.getShardedWorld() != this)
+			throw new IllegalArgumentException();
+		world.removeUnit(unit);
+	}
+
+	/**
+	 * Advance the state of all shards by the given time period.
+	 *
+	 * @param dt
+	 *            The time period, in seconds, by which to advance the state.
+	 * @effect First every shard copies the occupancy of the cubes just outside it from the
+	 *         shards owning them, so crowd limits across a border are checked against the
+	 *         shard owning the cube without reading it while it advances.
+	 * @effect Every shard advances its time by dt, in parallel if this sharded world is
+	 *         parallel.
+	 * 		| for each shard: shard.advanceTime(dt)
+	 * @effect Afterwards the attacks across shard borders are resolved, shard by shard.
+	 * @effect Afterwards every unit in a cube owned by another shard is moved to that shard,
+	 *         shard by shard in the order the units left.
+	 * @effect Finally the commands given to units that had been handed off before they were
+	 *         executed are submitted to the shards of those units, shard by shard.
+	 * @throws IllegalArgumentException
+	 *         | !(0<dt && dt <=0.2)
+	 */
+	public void advanceTime(double dt) throws IllegalArgumentException {
+		if (!(0 < dt && dt <= 0.2))
+			throw new IllegalArgumentException();
+		for (int i = 0; i < shards.length; i++)
+			shards[i].copyBorderOccupancy(i > 0 ? shards[i - 1] : null, i + 1 < shards.length ? shards[i + 1] : null);
+		if (parallel && shards.length > 1)
+			IntStream.range(0, shards.length).parallel().forEach(i -> shards[i].advanceTime(dt));
+		else
+			for (World shard : shards)
+				shard.advanceTime(dt);
+		borderAttackCount = 0;
+		for (World shard : shards)
+			borderAttackCount += shard.getCombatResolver().resolveBorderAttacks();
+		handOffCount = 0;
+		for (World shard : shards)
+			for (Unit unit : shard.takeLeavingUnits())
+				handOff(shard, unit);
+		for (World shard : shards)
+			for (Command command : shard.takeForwardedCommands()) {
+				World owner = command.getUnit().getWorld();
+				if (owner != null && owner.getShardedWorld() == this)
+					owner.submit(command);
+			}
+	}
+
+	/**
+	 * Move the given unit from the given shard to the shard owning its cube, if it still
+	 * belongs to the given shard and its cube is owned by another shard. The unit is not
+	 * detached in between: its record moves from one shard's unit store to the other's.
+	 */
+	private void handOff(World from, Unit unit) {
+		if (unit.getWorld() != from)
+			return;
+		World to = shards[shardOf(unit.getCubeCoordinate()[0])];
+		if (to == from)
+			return;
+		from.handOff(unit, to);
+		handOffCount++;
+	}
+}
@@ -0,0 +1,160 @@
+package hillbillies.model;
+
+import be.kuleuven.cs.som.annotate.*;
+
+/**
+ * A class of clocks advancing a world in fixed steps from the real time that passes.
+ * The real time is accumulated and the world is advanced one step for every full step
+ * in the accumulator, with at most a maximal number of steps per update. Time beyond
+ * that is dropped, so a world that cannot keep up slows down instead of falling further
+ * behind with every update. The time left in the accumulator is used to interpolate
+ * positions and orientations between the last two ticks for rendering.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ * @invar The step is between 0 and 0.2 seconds.
+ * 		| 0 < getStep() && getStep() <= 0.2
+ */
+public class SimulationClock {
+	private final World world;
+	private final double step;
+	private final int maxStepsPerUpdate;
+	private double accumulator, droppedTime;
+
+	/**
+	 * Initialize this new clock for the given world.
+	 *
+	 * @param world
+	 *            The world to advance.
+	 * @param step
+	 *            The time, in seconds, the world advances in one tick.
+	 * @param maxStepsPerUpdate
+	 *            The maximal number of ticks in one update.
+	 * @effect Snapshots are enabled in the given world.
+	 * 		| world.setSnapshotsEnabled(true)
+	 * @throws IllegalArgumentException
+	 *             | !(0 < step && step <= 0.2) || maxStepsPerUpdate < 1
+	 */
+	public SimulationClock(World world, double step, int maxStepsPerUpdate) throws IllegalArgumentException {
+		if (!(0 < step && step <= 0.2) || maxStepsPerUpdate < 1)
+			throw new IllegalArgumentException();
+		this.world = world;
+		this.step = step;
+		this.maxStepsPerUpdate = maxStepsPerUpdate;
+		world.setSnapshotsEnabled(true);
+	}
+
+	/**
+	 * Returns the time, in seconds, the world advances in one tick.
+	 */
+	@Basic
+	public double getStep() {
+		return this.step;
+	}
+
+	/**
+	 * Returns the total real time, in seconds, that was dropped because the world
+	 * could not keep up.
+	 */
+	@Basic
+	public double getDroppedTime() {
+		return this.droppedTime;
+	}
+
+	/**
+	 * Returns how far the real time is between the last tick and the next one, as a
+	 * fraction between 0 and 1.
+	 *
+	 * @return | accumulator / getStep()
+	 */
+	public double getAlpha() {
+		return accumulator / step;
+	}
+
+	/**
+	 * Let the given real time pass and advance the world accordingly.
+	 *
+	 * @param realTime
+	 *            The real time, in seconds, that passed since the last update.
+	 * @effect The world is advanced by the step for every full step of accumulated
+	 *         time, but at most maxStepsPerUpdate times.
+	 * @post If more time is accumulated then maxStepsPerUpdate steps, the whole steps
+	 *       beyond that are dropped.
+	 * @return The number of ticks the world advanced.
+	 * @throws IllegalArgumentException
+	 *             | realTime < 0
+	 */
+	public int update(double realTime) throws IllegalArgumentException {
+		if (realTime < 0)
+			throw new IllegalArgumentException();
+		accumulator += realTime;
+		int steps = 0;
+		while (accumulator >= step && steps < maxStepsPerUpdate) {
+			world.advanceTime(step);
+			accumulator -= step;
+			steps++;
+		}
+		if (accumulator >= step) {
+			double dropped = Math.floor(accumulator / step) * step;
+			accumulator -= dropped;
+			droppedTime += dropped;
+		}
+		return steps;
+	}
+
+	/**
+	 * Store the position of the given unit, interpolated between the last two ticks,
+	 * in the given array.
+	 *
+	 * @param unit
+	 *            The unit to look up.
+	 * @param result
+	 *            An array with at least 3 elements.
+	 * @return The given array.
+	 * @throws IllegalArgumentException
+	 *             The unit is not in the last snapshot of the world.
+	 */
+	public double[] getInterpolatedPosition(Unit unit, double[] result) throws IllegalArgumentException {
+		WorldSnapshot current = world.getSnapshot();
+		WorldSnapshot previous = world.getPreviousSnapshot();
+		if (!isInterpolable(unit, previous, current))
+			return current.getPosition(unit, result);
+		double alpha = getAlpha();
+		result[0] = previous.getX(unit) + alpha * (current.getX(unit) - previous.getX(unit));
+		result[1] = previous.getY(unit) + alpha * (current.getY(unit) - previous.getY(unit));
+		result[2] = previous.getZ(unit) + alpha * (current.getZ(unit) - previous.getZ(unit));
+		return result;
+	}
+
+	/**
+	 * Returns the orientation of the given unit, interpolated along the shortest turn
+	 * between the last two ticks.
+	 *
+	 * @param unit
+	 *            The unit to look up.
+	 * @throws IllegalArgumentException
+	 *             The unit is not in the last snapshot of the world.
+	 */
+	public double getInterpolatedOrientation(Unit unit) throws IllegalArgumentException {
+		WorldSnapshot current = world.getSnapshot();
+		WorldSnapshot previous = world.getPreviousSnapshot();
+		if (!isInterpolable(unit, previous, current))
+			return current.getOrientation(unit);
+		double from = previous.getOrientation(unit);
+		double turn = current.getOrientation(unit) - from;
+		if (turn > Math.PI)
+			turn -= 2 * Math.PI;
+		else if (turn < -Math.PI)
+			turn += 2 * Math.PI;
+		double orientation = (from + getAlpha() * turn) % (2 * Math.PI);
+		return orientation < 0 ? orientation + 2 * Math.PI : orientation;
+	}
+
+	/**
+	 * Checks whether the given snapshots are of two consecutive ticks and both contain
+	 * the given unit.
+	 */
+	private static boolean isInterpolable(Unit unit, WorldSnapshot previous, WorldSnapshot current) {
+		return previous.getTick() + 1 == current.getTick() && previous.contains(unit) && current.contains(unit);
+	}
+}
@@ -0,0 +1,45 @@
+package hillbillies.model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event for one tick of a world. The event is only recorded
+ * when it is enabled in a running recording.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+@Name("hillbillies.Tick")
+@Label("World Tick")
+@Category("Hillbillies")
+@Description("One call of World.advanceTime")
+class TickEvent extends Event {
+
+	@Label("Tick")
+	long tick;
+
+	@Label("Units")
+	int units;
+
+	@Label("Moving Units")
+	int moving;
+
+	@Label("Working Units")
+	int working;
+
+	@Label("Resting Units")
+	int resting;
+
+	@Label("Attacking Units")
+	int attacking;
+
+	@Label("Combat Resolutions")
+	int combatResolutions;
+
+	@Label("MoveTo Steps")
+	long moveToSteps;
+}
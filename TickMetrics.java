@@ -0,0 +1,231 @@
+package hillbillies.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.kuleuven.cs.som.annotate.*;
+
+/**
+ * A class of metrics about the ticks of a world: the number of units in each
+ * activity, the number of combat resolutions and moveTo steps per tick, and a
+ * histogram of the tick durations. The metrics are only collected while they are
+ * enabled; when they are disabled a tick only reads one flag.
+ *
+ * The histogram has buckets of equal width within every power of two, like an
+ * HdrHistogram with 3 significant bits, so recording a duration never allocates.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class TickMetrics {
+
+	private static final int SUB_BUCKET_BITS = 3, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private volatile boolean enabled;
+	private long tickBudgetNanos = Long.MAX_VALUE;
+	private final long[] histogram = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+	private long tickCount, overrunCount, maxTickNanos, totalCombatResolutions;
+	private int moving, working, resting, attacking, combatResolutions;
+	private long moveToSteps;
+	private final AtomicLong pendingMoveToSteps = new AtomicLong();
+
+	/**
+	 * Returns whether the metrics are being collected.
+	 */
+	@Basic
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Set whether the metrics are collected. May be called from any thread.
+	 *
+	 * @post | new.isEnabled() == enabled
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Returns the duration, in nanoseconds, above which a tick counts as an overrun.
+	 */
+	@Basic
+	public long getTickBudgetNanos() {
+		return this.tickBudgetNanos;
+	}
+
+	/**
+	 * Set the duration above which a tick counts as an overrun.
+	 *
+	 * @param tickBudgetNanos
+	 *            The new tick budget, in nanoseconds.
+	 * @post | new.getTickBudgetNanos() == tickBudgetNanos
+	 * @throws IllegalArgumentException
+	 *             | tickBudgetNanos <= 0
+	 */
+	public void setTickBudgetNanos(long tickBudgetNanos) throws IllegalArgumentException {
+		if (tickBudgetNanos <= 0)
+			throw new IllegalArgumentException();
+		this.tickBudgetNanos = tickBudgetNanos;
+	}
+
+	/**
+	 * Returns the number of ticks recorded.
+	 */
+	public long getTickCount() {
+		return this.tickCount;
+	}
+
+	/**
+	 * Returns the number of recorded ticks that took longer then the tick budget.
+	 */
+	public long getOverrunCount() {
+		return this.overrunCount;
+	}
+
+	/**
+	 * Returns the duration of the longest recorded tick, in nanoseconds.
+	 */
+	public long getMaxTickNanos() {
+		return this.maxTickNanos;
+	}
+
+	/**
+	 * Returns the number of units that were moving at the end of the last recorded tick.
+	 */
+	public int getMovingCount() {
+		return this.moving;
+	}
+
+	/**
+	 * Returns the number of units that were working at the end of the last recorded tick.
+	 */
+	public int getWorkingCount() {
+		return this.working;
+	}
+
+	/**
+	 * Returns the number of units that were resting at the end of the last recorded tick.
+	 */
+	public int getRestingCount() {
+		return this.resting;
+	}
+
+	/**
+	 * Returns the number of units that were attacking at the end of the last recorded tick.
+	 */
+	public int getAttackingCount() {
+		return this.attacking;
+	}
+
+	/**
+	 * Returns the number of attacks resolved in the last recorded tick.
+	 */
+	public int getCombatResolutions() {
+		return this.combatResolutions;
+	}
+
+	/**
+	 * Returns the number of attacks resolved in all recorded ticks.
+	 */
+	public long getTotalCombatResolutions() {
+		return this.totalCombatResolutions;
+	}
+
+	/**
+	 * Returns the number of steps towards a destination taken by moveTo in the last
+	 * recorded tick.
+	 */
+	public long getMoveToSteps() {
+		return this.moveToSteps;
+	}
+
+	/**
+	 * Returns the tick duration, in nanoseconds, below which the given percentage of
+	 * the recorded ticks lie. The result is the upper bound of a histogram bucket, so
+	 * it is at most 1/8 too high.
+	 *
+	 * @param percentile
+	 *            The percentage, between 0 and 100.
+	 * @throws IllegalArgumentException
+	 *             | !(0 <= percentile && percentile <= 100)
+	 */
+	public long getTickNanosAtPercentile(double percentile) throws IllegalArgumentException {
+		if (!(0 <= percentile && percentile <= 100))
+			throw new IllegalArgumentException();
+		if (tickCount == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * tickCount));
+		long seen = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), maxTickNanos);
+		}
+		return maxTickNanos;
+	}
+
+	/**
+	 * Forget all recorded ticks.
+	 */
+	public void reset() {
+		java.util.Arrays.fill(histogram, 0);
+		tickCount = overrunCount = maxTickNanos = totalCombatResolutions = 0;
+	}
+
+	/**
+	 * Count one step towards a destination taken by moveTo. May be called from any thread.
+	 */
+	void countMoveToStep() {
+		if (enabled)
+			pendingMoveToSteps.incrementAndGet();
+	}
+
+	/**
+	 * Record a tick of the given world.
+	 *
+	 * @param world
+	 *            The world that ticked.
+	 * @param nanos
+	 *            The duration of the tick, in nanoseconds.
+	 * @param resolutions
+	 *            The number of attacks resolved in the tick.
+	 */
+	void record(World world, long nanos, int resolutions) {
+		UnitAggregates aggregates = world.getAggregates();
+		this.moving = aggregates.getMovingCount();
+		this.working = aggregates.getWorkingCount();
+		this.resting = aggregates.getRestingCount();
+		this.attacking = aggregates.getAttackingCount();
+		this.combatResolutions = resolutions;
+		this.totalCombatResolutions += resolutions;
+		this.moveToSteps = pendingMoveToSteps.getAndSet(0);
+		histogram[bucketOf(nanos)]++;
+		tickCount++;
+		if (nanos > tickBudgetNanos)
+			overrunCount++;
+		if (nanos > maxTickNanos)
+			maxTickNanos = nanos;
+	}
+
+	/**
+	 * Returns the histogram bucket of the given duration.
+	 */
+	private static int bucketOf(long nanos) {
+		if (nanos < SUB_BUCKETS)
+			return (int) Math.max(0, nanos);
+		int magnitude = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+		int subBucket = (int) (nanos >>> magnitude) - SUB_BUCKETS;
+		return (magnitude + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest duration in the histogram bucket with the given index.
+	 */
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int magnitude = bucket / SUB_BUCKETS - 1;
+		long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << magnitude) - 1;
+	}
+}
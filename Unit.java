@@ -1,12 +1,16 @@
 package hillbillies.model;
 
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import be.kuleuven.cs.som.annotate.*;
 
 /**
  * A class of units characterised by their name, position, weight, agility,
- * strength, toughness and default behaviour. 
+ * strength, toughness and default behaviour. The state of a unit is kept in a record
+ * of the unit store of its world, or of a store of its own on the heap while it belongs
+ * to no world.
  * 
  * @version 1.0
  * @author Sigrid Feyaerts, Eleanor Van Looy
@@ -25,16 +29,63 @@ import be.kuleuven.cs.som.annotate.*;
  */
 
 public class Unit {
+	private static final int lc = 1;
+
 	private String name;
-	private int strength, weight, agility, toughness, lc = 1, hitPoints, staminaPoints;
-	private double attackTime, orientation, vw, vb, vs, currentSpeed, distanceToGo, workTime, restTime, minRestTime,
-			sprintedTime,timeTillRest = 3*60;
-	private double[] position, targetPosition, v;
-	private boolean enableDefaultBehaviour, isAttacking = false, isMoving = false, isSprinting = false,
-			isWorking = false, isResting = true, inMinRestTime;
+	private int id = -1, slot;
+	private UnitStore store = UnitStore.detached();
+	private World world;
 
 	private static final char[] validChars = new char[] { ' ', '\"', '\'' };
 
+	/**
+	 * Whether each ASCII character may be used in a name after the first character.
+	 */
+	private static final boolean[] VALID_NAME_CHARACTER = new boolean[128];
+
+	static {
+		for (char c = 0; c < 128; c++)
+			VALID_NAME_CHARACTER[c] = Character.isLetter(c);
+		for (char c : validChars)
+			VALID_NAME_CHARACTER[c] = true;
+	}
+
+	/**
+	 * The names already given to units, so units with the same name share one String.
+	 * Only valid names are added, so a name in this map needs no validation.
+	 */
+	private static final ConcurrentHashMap<String, String> NAMES = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * The maximum number of names remembered in NAMES.
+	 */
+	private static final int MAX_NAMES = 1 << 16;
+
+	/**
+	 * The largest number of activities a unit goes through in one aggregated time period,
+	 * and the time added to the predicted end of an activity so rounding does not leave it
+	 * unfinished.
+	 */
+	private static final int MAX_AGGREGATED_ACTIVITIES = 8;
+	private static final double ACTIVITY_END_MARGIN = 1e-9;
+
+	/**
+	 * The time needed to recover one hit point or stamina point while resting, and the
+	 * number of points recovered per second, for every toughness from 1 to 200.
+	 */
+	private static final double[] TIME_TO_RECOVER_HIT_POINT = new double[201],
+			TIME_TO_RECOVER_STAMINA_POINT = new double[201], HIT_POINTS_PER_SECOND = new double[201],
+			STAMINA_POINTS_PER_SECOND = new double[201];
+
+	static {
+		for (int toughness = 1; toughness <= 200; toughness++) {
+			TIME_TO_RECOVER_HIT_POINT[toughness] = 1 / (toughness / 200.0) * 0.2;
+			TIME_TO_RECOVER_STAMINA_POINT[toughness] = 1 / (toughness / 100.0) * 0.2;
+			HIT_POINTS_PER_SECOND[toughness] = 1 / TIME_TO_RECOVER_HIT_POINT[toughness];
+			STAMINA_POINTS_PER_SECOND[toughness] = 1 / TIME_TO_RECOVER_STAMINA_POINT[toughness];
+		}
+	}
+
 	/**
 	 * Initialize this new unit with given name, position, weight, strength,
 	 * agility, toughness and state of default behaviour.
@@ -81,6 +132,8 @@ public class Unit {
 	 */
 	public Unit(String name, int[] initialPosition, int weight, int agility, int strength, int toughness,
 			boolean enableDefaultBehaviour) throws IllegalArgumentException {
+		store.putInt(slot, UnitStore.FLAGS, UnitStore.RESTING);
+		store.putDouble(slot, UnitStore.TIME_TILL_REST, 3 * 60);
 		// set name
 		setName(name);
 		// set position
@@ -90,33 +143,34 @@ public class Unit {
 		int maxInitialValue = 100;
 		// set agility
 		if (agility < minInitialValue)
-			this.agility = minInitialValue;
+			store.putShort(slot, UnitStore.AGILITY, (short) minInitialValue);
 		else if (agility > maxInitialValue)
-			this.agility = maxInitialValue;
+			store.putShort(slot, UnitStore.AGILITY, (short) maxInitialValue);
 		else
-			this.agility = agility;
+			store.putShort(slot, UnitStore.AGILITY, (short) agility);
 		// set strength
 		if (strength < minInitialValue)
-			this.strength = minInitialValue;
+			store.putShort(slot, UnitStore.STRENGTH, (short) minInitialValue);
 		else if (strength > maxInitialValue)
-			this.strength = maxInitialValue;
+			store.putShort(slot, UnitStore.STRENGTH, (short) maxInitialValue);
 		else
-			this.strength = strength;
+			store.putShort(slot, UnitStore.STRENGTH, (short) strength);
 		// set weight
 		int minWeight = (int) Math.ceil((this.getStrength() + this.getAgility()) / 2.0);
 		if (weight < Math.max(minWeight, minInitialValue))
-			this.weight = Math.max(minWeight, minInitialValue);
+			store.putShort(slot, UnitStore.WEIGHT, (short) Math.max(minWeight, minInitialValue));
 		else if (weight > maxInitialValue)
-			this.weight = maxInitialValue;
+			store.putShort(slot, UnitStore.WEIGHT, (short) maxInitialValue);
 		else
-			this.weight = weight;
+			store.putShort(slot, UnitStore.WEIGHT, (short) weight);
 		// set toughness
 		if (toughness < minInitialValue)
-			this.toughness = minInitialValue;
+			store.putShort(slot, UnitStore.TOUGHNESS, (short) minInitialValue);
 		else if (toughness > maxInitialValue)
-			this.toughness = maxInitialValue;
+			store.putShort(slot, UnitStore.TOUGHNESS, (short) maxInitialValue);
 		else
-			this.toughness = toughness;
+			store.putShort(slot, UnitStore.TOUGHNESS, (short) toughness);
+		updateAttributeRates();
 		// set enableDefaultBehaviour
 		setDefaultBehaviourEnabled(enableDefaultBehaviour);
 		// set initial hit points
@@ -125,13 +179,162 @@ public class Unit {
 		setCurrentStaminaPoints(getMaxStaminaPoints());
 	}
 
+	/* Flags */
+	/**
+	 * Returns whether the given activity flag of this unit is set.
+	 */
+	private boolean hasFlag(int flag) {
+		return (getFlags() & flag) != 0;
+	}
+
+	/**
+	 * Set or clear the given activity flag of this unit.
+	 * 
+	 * @post | new.hasFlag(flag) == value
+	 * @effect If the unit belongs to a world and stops moving, the cube it was moving to
+	 * 		is no longer reserved.
+	 * 		| if (getWorld() != null && flag == MOVING && !value)
+	 * 		|  then getWorld().releaseTarget(this)
+	 */
+	private void setFlag(int flag, boolean value) {
+		int oldFlags = getFlags();
+		int flags = value ? oldFlags | flag : oldFlags & ~flag;
+		store.putInt(slot, UnitStore.FLAGS, flags);
+		changed(FLAGS_FIELD, oldFlags, flags);
+		if (world != null && oldFlags != flags) {
+			world.getAggregates().flagsChanged(oldFlags, flags);
+			if ((oldFlags & ~flags & UnitStore.MOVING) != 0)
+				world.releaseTarget(this);
+		}
+	}
+
+	/**
+	 * Returns the activity flags of this unit, with the moving, sprinting, working, resting
+	 * and attacking flags as bits 0 to 4.
+	 */
+	int getFlags() {
+		return store.getInt(slot, UnitStore.FLAGS);
+	}
+
+	/* State hash */
+	/**
+	 * The fields of a unit covered by the state hash of its world.
+	 */
+	private static final int X_FIELD = 0, Y_FIELD = 1, Z_FIELD = 2, ORIENTATION_FIELD = 3, HIT_POINTS_FIELD = 4,
+			STAMINA_POINTS_FIELD = 5, FLAGS_FIELD = 6;
+
+	/**
+	 * Tell the world of this unit that the given field changed from the given old value to
+	 * the given new value, so it can update its state hash.
+	 */
+	private void changed(int field, long oldValue, long newValue) {
+		if (world != null && oldValue != newValue)
+			world.stateChanged(id, field, oldValue, newValue);
+	}
+
+	private void changed(int field, double oldValue, double newValue) {
+		if (world != null)
+			changed(field, Double.doubleToLongBits(oldValue), Double.doubleToLongBits(newValue));
+	}
+
+	/**
+	 * Returns the part of the state hash of the world of this unit that covers this unit.
+	 *
+	 * @return The exclusive or of the hashes of all fields covered by the state hash.
+	 */
+	long stateHash() {
+		return World.fieldHash(id, X_FIELD, Double.doubleToLongBits(getX()))
+				^ World.fieldHash(id, Y_FIELD, Double.doubleToLongBits(getY()))
+				^ World.fieldHash(id, Z_FIELD, Double.doubleToLongBits(getZ()))
+				^ World.fieldHash(id, ORIENTATION_FIELD, Double.doubleToLongBits(getOrientation()))
+				^ World.fieldHash(id, HIT_POINTS_FIELD, getCurrentHitPoints())
+				^ World.fieldHash(id, STAMINA_POINTS_FIELD, getCurrentStaminaPoints())
+				^ World.fieldHash(id, FLAGS_FIELD, getFlags());
+	}
+
+	/**
+	 * Returns the random generator for the choices of this unit: the one of its world if it
+	 * belongs to a world, so the choices are reproducible in lockstep mode.
+	 */
+	private Random random() {
+		return (world != null) ? world.getRandom() : ThreadLocalRandom.current();
+	}
+
+	/* Timers */
+	/**
+	 * Returns the time left in the current activity of this unit.
+	 */
+	private double getActivityTimer() {
+		return store.getDouble(slot, UnitStore.ACTIVITY_TIMER);
+	}
+
+	private void setActivityTimer(double activityTimer) {
+		store.putDouble(slot, UnitStore.ACTIVITY_TIMER, activityTimer);
+	}
+
+	/**
+	 * Returns the time this unit has rested without recovering a point.
+	 */
+	private double getRestTime() {
+		return store.getDouble(slot, UnitStore.REST_TIME);
+	}
+
+	private void setRestTime(double restTime) {
+		store.putDouble(slot, UnitStore.REST_TIME, restTime);
+	}
+
+	/**
+	 * Returns the time this unit has sprinted without losing a stamina point.
+	 */
+	private double getSprintedTime() {
+		return store.getDouble(slot, UnitStore.SPRINTED_TIME);
+	}
+
+	private void setSprintedTime(double sprintedTime) {
+		store.putDouble(slot, UnitStore.SPRINTED_TIME, sprintedTime);
+	}
+
+	/**
+	 * Returns the time until this unit has to rest.
+	 */
+	private double getTimeTillRest() {
+		return store.getDouble(slot, UnitStore.TIME_TILL_REST);
+	}
+
+	private void setTimeTillRest(double timeTillRest) {
+		store.putDouble(slot, UnitStore.TIME_TILL_REST, timeTillRest);
+	}
+
 	/* Position */
 	/**
-	 * Returns the initial position of the unit.
+	 * Returns the position of the unit, as a new array {x, y, z}.
 	 */
-	@Basic
 	public double[] getPosition() {
-		return this.position;
+		return new double[] { getX(), getY(), getZ() };
+	}
+
+	/**
+	 * Returns the x-coordinate of the position of the unit.
+	 */
+	@Basic
+	double getX() {
+		return store.getDouble(slot, UnitStore.X);
+	}
+
+	/**
+	 * Returns the y-coordinate of the position of the unit.
+	 */
+	@Basic
+	double getY() {
+		return store.getDouble(slot, UnitStore.Y);
+	}
+
+	/**
+	 * Returns the z-coordinate of the position of the unit.
+	 */
+	@Basic
+	double getZ() {
+		return store.getDouble(slot, UnitStore.Z);
 	}
 
 	/**
@@ -144,13 +347,18 @@ public class Unit {
 	 *       | new.position= center of the cube initialPosition
 	 */
 	public void setPosition(int[] initialPosition) {
-		int dim = 3;
-		if (position == null)
-			position = new double[dim];
-		for (int i = 0; i < dim; i++) {
-			this.position[i] = initialPosition[i] + lc / 2.0;
-		}
+		setCoordinates(initialPosition[0] + lc / 2.0, initialPosition[1] + lc / 2.0, initialPosition[2] + lc / 2.0);
+		if (world != null)
+			world.updateCube(this);
+	}
 
+	private void setCoordinates(double x, double y, double z) {
+		changed(X_FIELD, getX(), x);
+		changed(Y_FIELD, getY(), y);
+		changed(Z_FIELD, getZ(), z);
+		store.putDouble(slot, UnitStore.X, x);
+		store.putDouble(slot, UnitStore.Y, y);
+		store.putDouble(slot, UnitStore.Z, z);
 	}
 
 	/**
@@ -160,11 +368,92 @@ public class Unit {
 
 	 */
 	public int[] getCubeCoordinate() {
+		return new int[] { (int) Math.floor(getX()), (int) Math.floor(getY()), (int) Math.floor(getZ()) };
+	}
+
+	/**
+	 * Returns the position of the cube containing the given position.
+	 * @param position
+	 * 		The given position, as an array {x, y, z}.
+	 * @return Returns an array which contains the given position rounded down to an integer.
+	 *         | int[] == {(int)(Math.floor(position[0])),(int)(Math.floor(position[1])),(int)(Math.floor(position[2]))}
+	 */
+	private static int[] getCubeCoordinate(double[] position) {
 		int[] cubeCoordinate = { (int) Math.floor(position[0]), (int) Math.floor(position[1]),
 				(int) Math.floor(position[2]) };
 		return cubeCoordinate;
 	}
 
+	/* World */
+	/**
+	 * Returns the world this unit belongs to, or null if it belongs to no world.
+	 */
+	@Basic
+	public World getWorld() {
+		return this.world;
+	}
+
+	/**
+	 * Returns the id of this unit in its world, or -1 if it belongs to no world.
+	 */
+	@Basic
+	int getId() {
+		return this.id;
+	}
+
+	/**
+	 * Set the world of this unit and the id of this unit in that world, and move the
+	 * state of this unit to the record with that id in the store of that world, or to a
+	 * store of its own if it no longer belongs to a world.
+	 * 
+	 * @param world
+	 * 		The new world of this unit.
+	 * @param id
+	 * 		The id of this unit in the given world.
+	 * @post | new.getWorld() == world && new.getId() == id
+	 */
+	void setWorld(World world, int id) {
+		UnitStore target = (world == null) ? UnitStore.detached() : world.getUnitStore();
+		int targetSlot = (world == null) ? 0 : id;
+		target.moveRecord(store, slot, targetSlot);
+		this.store = target;
+		this.slot = targetSlot;
+		this.world = world;
+		this.id = id;
+	}
+
+	/* Faction */
+	/**
+	 * Returns the faction of the unit.
+	 */
+	@Basic
+	public int getFaction() {
+		return store.getInt(slot, UnitStore.FACTION);
+	}
+
+	/**
+	 * Set the faction of the unit to the given faction.
+	 * 
+	 * @param faction
+	 * 		The new faction of the unit.
+	 * @post | new.getFaction() == faction
+	 */
+	public void setFaction(int faction) {
+		store.putInt(slot, UnitStore.FACTION, faction);
+	}
+
+	/**
+	 * Checks whether the given unit is hostile to this unit.
+	 * 
+	 * @param unit
+	 * 		The unit to check.
+	 * @return True if and only if the given unit is a different unit of a different faction.
+	 * 		| unit != this && unit.getFaction() != this.getFaction()
+	 */
+	public boolean isHostileTo(Unit unit) {
+		return unit != this && unit.getFaction() != this.getFaction();
+	}
+
 	/* Name */
 	/**
 	 * Return the name of the unit.
@@ -183,15 +472,16 @@ public class Unit {
 	 *         long, starts with an uppercase letter and only uses letters (both
 	 *         uppercase and lowercase), quotes (both single and double) and spaces. 
 	 *          |if((name.length() >= 2) && (Character.isUpperCase(name.charAt(0)) &&
-	 *	    |  (for(int i=1;i<name.length();i++){ Character.isLetter(name.charAt(i)|| validCharContains(name.charAt(i)}))
+	 *	    |  (for(int i=1;i<name.length();i++){ isValidNameCharacter(name.charAt(i)}))
 	 *      	|   then true 
 	 *      	| else false
 	 */
 	private static boolean isValidName(String name) {
+		if (NAMES.containsKey(name))
+			return true;
 		if (name.length() >= 2 && Character.isUpperCase(name.charAt(0))) {
 			for (int i = 1; i < name.length(); i++) {
-				char c = name.charAt(i);
-				if (!(Character.isLetter(c) || validCharContains(c)))
+				if (!isValidNameCharacter(name.charAt(i)))
 					return false;
 			}
 			return true;
@@ -200,22 +490,33 @@ public class Unit {
 	}
 
 	/**
-	 * Checks or the given character is character may be used in a name.
+	 * Checks or the given character may be used in a name after the first character.
 	 * @param 	character
 	 * 			The given character to check.
-	 * @return True if and only if character is a part of validChars.
-	 *         | for(i=0; i<validChars.length){
-	 *         |   if (validChars[i] == character)
-	 *         |      then return true 
-	 *         | else false 
-	 *         
-	 */
-	private static boolean validCharContains(char character) {
-		for (int i = 0; i < validChars.length; i++) {
-			if (validChars[i] == character)
-				return true;
-		}
-		return false;
+	 * @return True if and only if character is a letter or a part of validChars.
+	 *         | Character.isLetter(character) || (for some i: validChars[i] == character)
+	 */
+	private static boolean isValidNameCharacter(char character) {
+		if (character < 128)
+			return VALID_NAME_CHARACTER[character];
+		return Character.isLetter(character);
+	}
+
+	/**
+	 * Returns the String shared by all units with the given valid name.
+	 * @param name
+	 * 		The given valid name.
+	 * @return A String equal to the given name.
+	 * 		| result.equals(name)
+	 */
+	private static String sharedName(String name) {
+		String shared = NAMES.get(name);
+		if (shared != null)
+			return shared;
+		if (NAMES.size() >= MAX_NAMES)
+			return name;
+		shared = NAMES.putIfAbsent(name, name);
+		return shared == null ? name : shared;
 	}
 
 	/**
@@ -224,7 +525,7 @@ public class Unit {
 	 * @param name
 	 *            The new name of the unit.
 	 * @post The new name of this unit is equal to the given name. 
-	 *       | new.getName() == name
+	 *       | new.getName().equals(name)
 	 * @throws IllegalArgumentException
 	 *             The given name is not valid for any unit. 
 	 *             | !isValidName(name)
@@ -233,7 +534,7 @@ public class Unit {
 	public void setName(String name) throws IllegalArgumentException {
 		if (!isValidName(name))
 			throw new IllegalArgumentException(name);
-		this.name = name;
+		this.name = sharedName(name);
 
 	}
 
@@ -243,7 +544,7 @@ public class Unit {
 	 */
 	@Basic
 	public int getStrength() {
-		return this.strength;
+		return store.getShort(slot, UnitStore.STRENGTH);
 	}
 
 	/**
@@ -264,11 +565,12 @@ public class Unit {
 	 */
 	public void setStrength(int newStrength) {
 		if (newStrength <= 0)
-			this.strength = 1;
+			store.putShort(slot, UnitStore.STRENGTH, (short) 1);
 		else if (newStrength >= 200)
-			this.strength = 200;
+			store.putShort(slot, UnitStore.STRENGTH, (short) 200);
 		else
-			this.strength = newStrength;
+			store.putShort(slot, UnitStore.STRENGTH, (short) newStrength);
+		updateAttributeRates();
 	}
 
 	/**
@@ -276,7 +578,7 @@ public class Unit {
 	 */
 	@Basic
 	public int getWeight() {
-		return this.weight;
+		return store.getShort(slot, UnitStore.WEIGHT);
 	}
 	
 	
@@ -314,11 +616,12 @@ public class Unit {
 	public void setWeight(int newWeight) {
 		int minWeight = (int) Math.ceil((this.getStrength() + this.getAgility()) / 2.0);
 		if (newWeight <= minWeight)
-			this.weight = minWeight;
+			store.putShort(slot, UnitStore.WEIGHT, (short) minWeight);
 		else if (newWeight >= 200)
-			this.weight = 200;
+			store.putShort(slot, UnitStore.WEIGHT, (short) 200);
 		else
-			this.weight = newWeight;
+			store.putShort(slot, UnitStore.WEIGHT, (short) newWeight);
+		updateAttributeRates();
 	}
 
 	/**
@@ -326,7 +629,7 @@ public class Unit {
 	 */
 	@Basic
 	public int getAgility() {
-		return this.agility;
+		return store.getShort(slot, UnitStore.AGILITY);
 	}
 
 	/**
@@ -347,11 +650,12 @@ public class Unit {
 	 */
 	public void setAgility(int newAgility) {
 		if (newAgility <= 0)
-			this.agility = 1;
+			store.putShort(slot, UnitStore.AGILITY, (short) 1);
 		else if (newAgility >= 200)
-			this.agility = 200;
+			store.putShort(slot, UnitStore.AGILITY, (short) 200);
 		else
-			this.agility = newAgility;
+			store.putShort(slot, UnitStore.AGILITY, (short) newAgility);
+		updateAttributeRates();
 	}
 
 	/**
@@ -359,7 +663,7 @@ public class Unit {
 	 */
 	@Basic
 	public int getToughness() {
-		return this.toughness;
+		return store.getShort(slot, UnitStore.TOUGHNESS);
 	}
 
 	/**
@@ -381,11 +685,12 @@ public class Unit {
 	 */
 	public void setToughness(int newToughness) {
 		if (newToughness <= 0)
-			this.toughness = 1;
+			store.putShort(slot, UnitStore.TOUGHNESS, (short) 1);
 		else if (newToughness >= 200)
-			this.toughness = 200;
+			store.putShort(slot, UnitStore.TOUGHNESS, (short) 200);
 		else
-			this.toughness = newToughness;
+			store.putShort(slot, UnitStore.TOUGHNESS, (short) newToughness);
+		updateAttributeRates();
 	}
 	/**
 	 * Returns the maximum amount of hit points the unit can have.
@@ -396,7 +701,31 @@ public class Unit {
 	 */
 	
 	public int getMaxHitPoints() {
-		return (int) (Math.ceil(200.0 * (this.getWeight() / 100.0) * (this.getToughness() / 100.0)));
+		return store.getInt(slot, UnitStore.MAX_POINTS);
+	}
+
+	/**
+	 * Computes the values that only depend on the attributes of the unit, so they
+	 * don't have to be computed every tick.
+	 * 
+	 * @post The maximum hit points and stamina points are computed from the weight and toughness.
+	 * 		| new.getMaxHitPoints() == (int)Math.ceil(200*(getWeight()/100.0)*(getToughness()/100.0))
+	 * @post The base speed is computed from the strength, agility and weight.
+	 * 		| new.baseSpeed == 1.5*(getStrength()+getAgility())/(200.0*getWeight()/100.0)
+	 */
+	private void updateAttributeRates() {
+		store.putInt(slot, UnitStore.MAX_POINTS,
+				(int) (Math.ceil(200.0 * (this.getWeight() / 100.0) * (this.getToughness() / 100.0))));
+		if (this.getWeight() > 0)
+			store.putDouble(slot, UnitStore.BASE_SPEED,
+					1.5 * (this.getStrength() + this.getAgility()) / (200.0 * this.getWeight() / 100.0));
+	}
+
+	/**
+	 * Returns the speed of the unit walking on level ground.
+	 */
+	private double getBaseSpeed() {
+		return store.getDouble(slot, UnitStore.BASE_SPEED);
 	}
 
 	/**
@@ -404,7 +733,7 @@ public class Unit {
 	 */
 	@Basic
 	public int getCurrentHitPoints() {
-		return this.hitPoints;
+		return store.getInt(slot, UnitStore.HIT_POINTS);
 	}
 
 	/**
@@ -420,7 +749,11 @@ public class Unit {
 	private void setCurrentHitPoints(int newHitPoints){
 		assert newHitPoints >=0;
 		assert newHitPoints <= this.getMaxHitPoints();
-		this.hitPoints = newHitPoints;
+		int hitPoints = getCurrentHitPoints();
+		changed(HIT_POINTS_FIELD, hitPoints, newHitPoints);
+		if (world != null && newHitPoints != hitPoints)
+			world.getAggregates().hitPointsChanged(newHitPoints - hitPoints);
+		store.putInt(slot, UnitStore.HIT_POINTS, newHitPoints);
 	}
 	/**
 	 * Returns the maximum stamina points of the unit.
@@ -431,7 +764,7 @@ public class Unit {
 	 */
 
 	public int getMaxStaminaPoints() {
-		return (int) (Math.ceil(200.0 * (this.getWeight() / 100.0) * (this.getToughness() / 100.0)));
+		return store.getInt(slot, UnitStore.MAX_POINTS);
 	}
 
 	/**
@@ -439,7 +772,7 @@ public class Unit {
 	 */
 	@Basic
 	public int getCurrentStaminaPoints() {
-		return this.staminaPoints;
+		return store.getInt(slot, UnitStore.STAMINA_POINTS);
 	}
 
 	/**
@@ -457,8 +790,8 @@ public class Unit {
 	private void setCurrentStaminaPoints(int newStaminaPoints){
 		assert newStaminaPoints >=0;
 		assert newStaminaPoints <= this.getMaxStaminaPoints();
-		
-		this.staminaPoints = newStaminaPoints;
+		changed(STAMINA_POINTS_FIELD, getCurrentStaminaPoints(), newStaminaPoints);
+		store.putInt(slot, UnitStore.STAMINA_POINTS, newStaminaPoints);
 	}
 	/* Orientation */
 
@@ -468,7 +801,7 @@ public class Unit {
 	 */
 	@Basic
 	public double getOrientation() {
-		return this.orientation;
+		return store.getDouble(slot, UnitStore.ORIENTATION);
 	}
 
 	/**
@@ -492,7 +825,8 @@ public class Unit {
 		newOrientation = newOrientation % (2 * Math.PI);
 		while (newOrientation < 0)
 			newOrientation = newOrientation + 2 * Math.PI;
-		this.orientation = newOrientation;
+		changed(ORIENTATION_FIELD, getOrientation(), newOrientation);
+		store.putDouble(slot, UnitStore.ORIENTATION, newOrientation);
 	}
 
 	/* Time */
@@ -517,35 +851,152 @@ public class Unit {
 		// correcte dt?
 		if (!(0 < dt && dt <= 0.2))
 			throw new IllegalArgumentException();
+		advance(dt);
+	}
+
+	/**
+	 * Advance the state of the given unit by the given time period, which may be longer
+	 * then 0.2 seconds. Timers are decreased by the whole period at once, resting recovers
+	 * all points earned in the period and movement goes in a straight line towards the
+	 * target position, so the result is close to advancing in steps of at most 0.2 seconds.
+	 * When an activity ends within the period, the rest of the period goes to the next
+	 * activity.
+	 * 
+	 * @param dt
+	 *            The time period, in seconds, by which to advance the unit's state.
+	 * @throws IllegalArgumentException
+	 *         | !(0<dt)
+	 */
+	void advanceTimeAggregated(double dt) throws IllegalArgumentException {
+		if (!(0 < dt))
+			throw new IllegalArgumentException();
+		for (int activities = 0; activities < MAX_AGGREGATED_ACTIVITIES; activities++) {
+			double step = Math.min(dt, getActivityTimeLeft());
+			int flags = getFlags();
+			advance(step);
+			dt -= step;
+			if (dt <= 0 || getFlags() == flags)
+				break;
+		}
+		if (dt > 0)
+			advance(dt);
+	}
+
+	/**
+	 * Returns the time, in seconds, after which the current activity of this unit ends,
+	 * or infinity if it does not end by itself. A unit without activity whose default
+	 * behaviour is enabled chooses a new activity without taking time.
+	 */
+	private double getActivityTimeLeft() {
+		if (hasFlag(UnitStore.MOVING)) {
+			double dx = getTargetX() - getX(), dy = getTargetY() - getY(), dz = getTargetZ() - getZ();
+			return Math.sqrt(dx * dx + dy * dy + dz * dz) / getCurrentSpeed() + ACTIVITY_END_MARGIN;
+		}
+		if (hasFlag(UnitStore.WORKING))
+			return getActivityTimer();
+		if (hasFlag(UnitStore.RESTING)) {
+			// one call recovers hit points or stamina points and a call with both recovered ends resting
+			int toughness = getToughness();
+			if (getCurrentHitPoints() < getMaxHitPoints())
+				return Math.max(0, (getMaxHitPoints() - getCurrentHitPoints()) * TIME_TO_RECOVER_HIT_POINT[toughness]
+						- getRestTime()) + ACTIVITY_END_MARGIN;
+			if (getCurrentStaminaPoints() < getMaxStaminaPoints())
+				return Math.max(0, (getMaxStaminaPoints() - getCurrentStaminaPoints())
+						* TIME_TO_RECOVER_STAMINA_POINT[toughness] - getRestTime()) + ACTIVITY_END_MARGIN;
+			return 0;
+		}
+		if (hasFlag(UnitStore.ATTACKING))
+			return Math.max(0, getActivityTimer());
+		return isDefaultBehaviourEnabled() ? 0 : Double.POSITIVE_INFINITY;
+	}
 
-		setCurrentSpeed();
-		if (isMoving) {
+	private void advance(double dt) {
+		if (hasFlag(UnitStore.MOVING)) {
 			moving(dt);
 		}
 		
-		else if (isWorking) {
+		else if (hasFlag(UnitStore.WORKING)) {
 			working(dt);
 		}
 		
-		else if(isResting){
+		else if(hasFlag(UnitStore.RESTING)){
 			resting(dt);
 
 		}
 		
-		else if (isAttacking) {
+		else if (hasFlag(UnitStore.ATTACKING)) {
 			attacking(dt);
 		} else if(isDefaultBehaviourEnabled()){
 			startDefaultBehaviour();
 		}
-		
-		
+		countDownToRest(dt);
+	}
+
+	/**
+	 * Advance the state of the given moving unit by the given time period, with the new
+	 * position of the unit computed by the world for all moving units at once.
+	 * 
+	 * @param dt
+	 *            The time period, in seconds, by which to advance the unit's state.
+	 * @param x, y, z
+	 * 		The new position of the unit.
+	 * @param arrived
+	 * 		Whether the unit reached its target position.
+	 * @effect | moved(dt, x, y, z, arrived)
+	 */
+	void advanceTimeMoved(double dt, double x, double y, double z, boolean arrived) {
+		moved(dt, x, y, z, arrived);
+		countDownToRest(dt);
+	}
+
+	/**
+	 * Returns the speed this unit will move at in the next tick.
+	 */
+	double prepareMovement() {
+		return getCurrentSpeed();
+	}
+
+	/**
+	 * Returns the x-coordinate of the position this unit is moving to.
+	 */
+	double getTargetX() {
+		return store.getDouble(slot, UnitStore.TARGET_X);
+	}
+
+	/**
+	 * Returns the y-coordinate of the position this unit is moving to.
+	 */
+	double getTargetY() {
+		return store.getDouble(slot, UnitStore.TARGET_Y);
+	}
+
+	/**
+	 * Returns the z-coordinate of the position this unit is moving to.
+	 */
+	double getTargetZ() {
+		return store.getDouble(slot, UnitStore.TARGET_Z);
+	}
+
+	private void setTarget(double x, double y, double z) {
+		store.putDouble(slot, UnitStore.TARGET_X, x);
+		store.putDouble(slot, UnitStore.TARGET_Y, y);
+		store.putDouble(slot, UnitStore.TARGET_Z, z);
+	}
+
+	/**
+	 * Decreases the time until the unit has to rest, and makes the unit rest when it is over.
+	 * @param dt
+	 * 		The given time.
+	 */
+	private void countDownToRest(double dt) {
 		// resting in 3 min
-		if (!isResting) {
+		if (!hasFlag(UnitStore.RESTING)) {
+			double timeTillRest = getTimeTillRest();
 			if (timeTillRest <= 0) {
-				this.isResting = true;
-				timeTillRest = 3 * 60;
+				setFlag(UnitStore.RESTING, true);
+				setTimeTillRest(3 * 60);
 			} else
-				timeTillRest -= dt;
+				setTimeTillRest(timeTillRest - dt);
 
 		}
 
@@ -559,9 +1010,9 @@ public class Unit {
 	 *       | new.isSprinting == true
 	 */
 	public void startSprinting() {
-		if (this.isMoving && this.getCurrentStaminaPoints() > 0){
-			sprintedTime=0;
-			this.isSprinting = true;
+		if (hasFlag(UnitStore.MOVING) && this.getCurrentStaminaPoints() > 0){
+			setSprintedTime(0);
+			setFlag(UnitStore.SPRINTING, true);
 		}
 	}
 
@@ -571,54 +1022,40 @@ public class Unit {
 	 *       | new.isSprinting == false 
 	 */
 	public void stopSprinting() {
-		this.isSprinting = false;
+		setFlag(UnitStore.SPRINTING, false);
 	}
 
 	/**
 	 * Return the current speed of this unit.
 	 * 
+	 * @return if the unit is not moving, the speed is 0.
+	 * 		| if (!this.isMoving())
+	 * 		|  then result == 0
+	 * @return if the unit is moving in the x and/or y direction the speed is the base speed.
+	 * 		| if (this.getPosition()[2] == this.targetZ)
+	 * 		|  then result == baseSpeed
+	 * @return if the unit is moving in the negative z-direction, the speed is 1.2*baseSpeed.
+	 * 		| if (this.getPosition()[2] > this.targetZ)
+	 * 		|  then result == 1.2*baseSpeed
+	 * @return if the unit is moving in the positive z-direction, the speed is 0.5*baseSpeed.
+	 * 		| if (this.getPosition()[2] < this.targetZ)
+	 * 		|  then result == 0.5*baseSpeed
+	 * @return if the unit is sprinting, the speed is doubled.
 	 */
-	@Basic
 	public double getCurrentSpeed() {
-		return this.currentSpeed;
-	}
-	/**
-	 * Sets the current speed of this unit.
-	 * 
-	 * @post if the unit is not moving, the speed is 0.
-	 * 		| if (!this.isMoving)
-	 * 		|  then new.currentSpeed == 0
-	 * @post if the unit is moving in the x and/or y direction the speed is vb.
-	 * 		| if (this.getPosition()[2] == this.targetPosition[2])
-	 * 		|  then new.currentSpeed == vb
-	 * @post if the unit is moving in the negative z-direction, the speed is 1.2*vb.
-	 * 		| if (this.getPosition()[2] > this.targetPosition[2])
-	 * 		|  then new.currentSpeed == 1.2*vb
-	 * @post if the unit is moving in the negative z-direction, the speed is 0.5*vb.
-	 * 		| if (this.getPosition()[2] < this.targetPosition[2])
-	 * 		|  then new.currentSpeed == 0.5*vb
-	 * 
-	 */
-
-	private void setCurrentSpeed() {
-		if (!(isMoving)) {
-			currentSpeed = 0;
-		} else {
-			vb = 1.5 * (this.getStrength() + this.getAgility()) / (200.0 * this.getWeight() / 100.0);
-
-			if ((this.getPosition()[2] < targetPosition[2]))
-				vw = 0.5 * vb;
-			else if ((this.getPosition()[2] > targetPosition[2]))
-				vw = 1.2 * vb;
-			else
-				vw = vb;
-			vs = 2 * vw;
-			if (this.isSprinting)
-				currentSpeed = vs;
-			else
-				currentSpeed = vw;
-
-		}
+		if (!(hasFlag(UnitStore.MOVING)))
+			return 0;
+		double z = getZ(), targetZ = getTargetZ(), baseSpeed = getBaseSpeed();
+		double vw;
+		if (z < targetZ)
+			vw = 0.5 * baseSpeed;
+		else if (z > targetZ)
+			vw = 1.2 * baseSpeed;
+		else
+			vw = baseSpeed;
+		if (hasFlag(UnitStore.SPRINTING))
+			return 2 * vw;
+		return vw;
 	}
 
 	/**
@@ -639,6 +1076,12 @@ public class Unit {
 	 * 		| new.isMoving == true 
 	 * @throws IllegalArgumentException
 	 *         If the coordinate of the given cube aren't in the range of the gameworld. 
+	 * @effect If the unit belongs to a world, it reserves the given cube.
+	 * 		| if (getWorld() != null)
+	 * 		|  then getWorld().reserveTarget(this)
+	 * @throws IllegalArgumentException
+	 *         If the unit belongs to a world and the given cube has reached its crowd limit.
+	 *         | getWorld() != null && !getWorld().canEnter(this, target cube)
 	 */
 
 	public void moveToAdjacent(int dx, int dy, int dz) throws IllegalArgumentException {
@@ -649,11 +1092,16 @@ public class Unit {
 				|| !(0 <= cubeCoordinates[1] + dy && cubeCoordinates[1] + dy <= 49)
 				|| !(0 <= cubeCoordinates[2] + dz && cubeCoordinates[2] + dz <= 49))
 			throw new IllegalArgumentException();
+		if (world != null && (dx != 0 || dy != 0 || dz != 0)
+				&& !world.canEnter(this, cubeCoordinates[0] + dx, cubeCoordinates[1] + dy, cubeCoordinates[2] + dz))
+			throw new IllegalArgumentException();
 
 		// variables (targetposition,)
-		this.targetPosition = new double[] { cubeCoordinates[0] + dx + lc / 2.0,
-				cubeCoordinates[1] + dy + lc / 2.0, cubeCoordinates[2] + dz + lc / 2.0 };
-		isMoving=true;
+		setTarget(cubeCoordinates[0] + dx + lc / 2.0, cubeCoordinates[1] + dy + lc / 2.0,
+				cubeCoordinates[2] + dz + lc / 2.0);
+		setFlag(UnitStore.MOVING, true);
+		if (world != null)
+			world.reserveTarget(this);
 	}
 
 	/**
@@ -667,16 +1115,20 @@ public class Unit {
 	 *       | if ((!this.isWorking) && (!this.isAttacking))
 	 *       |  then new.endTargetPosition[i]  = cube[i]+lc/2.0
 	 *       |  then this.isMoving = true
+	 * @post If the unit belongs to a world and the next cube on its way has reached its crowd limit,
+	 * 		the unit does not move.
+	 * 		| if (getWorld() != null && !getWorld().canEnter(this, next cube))
+	 * 		|  then new.isMoving == false
 	 */
 	public void moveTo(int[] cube) {
-		if ((!this.isWorking)&&(!this.isAttacking)){
+		if ((!hasFlag(UnitStore.WORKING))&&(!hasFlag(UnitStore.ATTACKING))){
 			
-			this.isMoving = true;
-			this.endTargetPosition = new double []{cube[0]+lc/2.0 , cube[1]+lc/2.0, cube[2]+lc/2.0};
+			setFlag(UnitStore.MOVING, true);
+			double[] endTargetPosition = new double []{cube[0]+lc/2.0 , cube[1]+lc/2.0, cube[2]+lc/2.0};
 			int x;
 			int y;
 			int z;
-			int[] endTargetCube = this.getCubeCoordinate(this.endTargetPosition);
+			int[] endTargetCube = getCubeCoordinate(endTargetPosition);
 			if (this.getCubeCoordinate()[0]== endTargetCube[0])
 				x =0;
 			else if (this.getCubeCoordinate()[0]< endTargetCube[0])
@@ -695,6 +1147,14 @@ public class Unit {
 				z = 1;
 			else 
 				z = -1;
+			int[] cubeCoordinate = this.getCubeCoordinate();
+			if (world != null && (x != 0 || y != 0 || z != 0)
+					&& !world.canEnter(this, cubeCoordinate[0] + x, cubeCoordinate[1] + y, cubeCoordinate[2] + z)) {
+				setFlag(UnitStore.MOVING, false);
+				return;
+			}
+			if (world != null)
+				world.getMetrics().countMoveToStep();
 			this.moveToAdjacent(x,y,z);
 									
 	        	
@@ -708,7 +1168,7 @@ public class Unit {
 	 * 	| this.isMoving
 	 */
 	public boolean isMoving() {
-		return isMoving;
+		return hasFlag(UnitStore.MOVING);
 	}
 
 	/**
@@ -718,7 +1178,7 @@ public class Unit {
 	 * 	| this.isSprinting
 	 */
 	public boolean isSprinting() {
-		return isSprinting;
+		return hasFlag(UnitStore.SPRINTING);
 	}
 	
 	/**
@@ -741,31 +1201,57 @@ public class Unit {
 	 * 
 	 */
 	private void moving(double dt) {
-		distanceToGo = Math.sqrt(Math.pow((targetPosition[0] - this.getPosition()[0]), 2)
-				+ Math.pow((targetPosition[1] - this.getPosition()[1]), 2)
-				+ Math.pow((targetPosition[2] - this.getPosition()[2]), 2));
-		v = new double[] { this.getCurrentSpeed() * (targetPosition[0] - this.getPosition()[0]) / distanceToGo,
-				this.getCurrentSpeed() * (targetPosition[1] - this.getPosition()[1]) / distanceToGo,
-				this.getCurrentSpeed() * (targetPosition[2] - this.getPosition()[2]) / distanceToGo };
-		double speed = Math.sqrt(Math.pow(v[0], 2) + Math.pow(v[1], 2) + Math.pow(v[2], 2));
-		if (distanceToGo > speed * dt) {
-			this.position = new double[] { this.getPosition()[0] + v[0] * dt, this.getPosition()[1] + v[1] * dt,
-					this.getPosition()[2] + v[2] * dt };
-			this.setOrientation(Math.atan2(v[1], v[0]));
+		// the same operations as the movement kernels, so both give the same positions
+		double x = getX(), y = getY(), z = getZ();
+		double targetX = getTargetX(), targetY = getTargetY(), targetZ = getTargetZ();
+		double dx = targetX - x, dy = targetY - y, dz = targetZ - z;
+		double distanceToGo = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		double step = this.getCurrentSpeed() * dt;
+		if (distanceToGo > step) {
+			double scale = step / distanceToGo;
+			moved(dt, x + dx * scale, y + dy * scale, z + dz * scale, false);
+		} else
+			moved(dt, targetX, targetY, targetZ, true);
+	}
+
+	/**
+	 * Updates the position of the unit to the given position, computed for a step of dt seconds
+	 * towards its targetPosition, and its state of moving and sprinting.
+	 * @param dt
+	 * 		The given time in seconds.
+	 * @param x, y, z
+	 * 		The new position of the unit.
+	 * @param arrived
+	 * 		Whether the unit reached its targetPosition.
+	 * @post If the unit did not arrive, the position of the unit is the given position and the orientation of
+	 * 		the unit is the direction it moved in.
+	 * 		| if (!arrived)
+	 * 		|  then new.getPosition() == {x,y,z}
+	 * 		|		new.getOrientation() == Math.atan2(y-this.getPosition()[1], x-this.getPosition()[0])
+	 * @post If the unit arrived, the position of the unit is its targetPosition and it stops moving and sprinting.
+	 * 		| if (arrived)
+	 * 		|  then new.getPosition() == this.targetPosition && !new.isMoving() && !new.isSprinting()
+	 */
+	private void moved(double dt, double x, double y, double z, boolean arrived) {
+		if (!arrived) {
+			this.setOrientation(StrictMath.atan2(y - this.getY(), x - this.getX()));
+			setCoordinates(x, y, z);
 		} else{
-			this.position = this.targetPosition;
-			sprintedTime=0;
-			this.isMoving = false;
-			isSprinting=false;
+			setCoordinates(getTargetX(), getTargetY(), getTargetZ());
+			setSprintedTime(0);
+			setFlag(UnitStore.MOVING, false);
+			setFlag(UnitStore.SPRINTING, false);
 		}
-		if (isSprinting) {
-			sprintedTime += dt;
-			while (sprintedTime >= 0.1) {
-				sprintedTime -= 0.1;
+		if (world != null)
+			world.updateCube(this);
+		if (hasFlag(UnitStore.SPRINTING)) {
+			setSprintedTime(getSprintedTime() + dt);
+			while (getSprintedTime() >= 0.1) {
+				setSprintedTime(getSprintedTime() - 0.1);
 				if (this.getCurrentStaminaPoints() <= 1) {
 					this.setCurrentStaminaPoints(0);
-					this.isSprinting = false;
-					sprintedTime=0;
+					setFlag(UnitStore.SPRINTING, false);
+					setSprintedTime(0);
 				} else
 					this.setCurrentStaminaPoints(this.getCurrentStaminaPoints() - 1);
 			}
@@ -780,33 +1266,67 @@ public class Unit {
 	 *      The unit that should be attacked.
 	 * @effect The orientation of the attacking unit will be set facing the other.
 	 * 		| this.setOrientation(tan(this.getPosition()-defender.getPosition()))
-	 *       
-	 * @post If the attacked unit was unable to defend itself its hit points will be lowered.
-	 *         TODO
+	 * @effect If the unit belongs to a world, the attack is resolved in the combat phase of the world,
+	 * 		otherwise it is resolved immediately.
+	 * 		| if (getWorld() != null)
+	 * 		|  then getWorld().getCombatResolver().submit(this, defender)
+	 * 		| else this.resolveAttack(defender)
+	 * @effect If the defender belongs to another shard, which may be advancing at the same time,
+	 * 		the attack only starts once all shards have advanced.
+	 * 		| if (getWorld() != null && getWorld().isInOtherShard(defender))
+	 * 		|  then getWorld().getCombatResolver().submitBorderAttack(this, defender)
 	 * @post IsAttacking will be set to true.
 	 * 		| new.isAttacking == true
 	 * 
 	 */
 	public void attack(Unit defender) {
-		isMoving=false;isWorking=false;isResting=false;
+		setFlag(UnitStore.MOVING, false);setFlag(UnitStore.WORKING, false);setFlag(UnitStore.RESTING, false);
+		if (world != null && world.isInOtherShard(defender)) {
+			world.getCombatResolver().submitBorderAttack(this, defender);
+			return;
+		}
+		if (!startAttack(defender))
+			return ;
+		if (world != null)
+			world.getCombatResolver().submit(this, defender);
+		else
+			resolveAttack(defender);
+	}
+
+	/**
+	 * Start an attack of this unit on the given unit(defender), facing it.
+	 * @param defender
+	 *      The unit that should be attacked.
+	 * @return False if the defender is this unit or is not adjacent to it, in which case
+	 * 		nothing happens; true otherwise.
+	 * 		| result == (isAdjacent(defender) && defender != this)
+	 */
+	boolean startAttack(Unit defender) {
 		if (!isAdjacent(defender) || defender==this)
-			return ;		
-		this.getCubeCoordinate();
-		attackTime = 1.00;
-		double thetaA = Math.atan2((defender.position[1] - this.position[1]),
-				(defender.position[0] - this.position[0]));
-		double thetaD = Math.atan2((this.position[1] - defender.position[1]),
-				(this.position[0] - defender.position[0]));
+			return false;
+		setFlag(UnitStore.IN_MIN_REST_TIME, false);
+		setActivityTimer(1.00);
+		double thetaA = StrictMath.atan2((defender.getY() - this.getY()), (defender.getX() - this.getX()));
 		this.setOrientation(thetaA);
+		setFlag(UnitStore.ATTACKING, true);
+		return true;
+	}
+
+	/**
+	 * Resolve an attack of this unit on the given unit(defender).
+	 * @param defender
+	 *      The unit that is attacked.
+	 * @effect The orientation of the defender will be set facing this unit.
+	 * 		| defender.setOrientation(tan(defender.getPosition()-this.getPosition()))
+	 * @effect If the attacked unit was unable to defend itself its hit points will be lowered.
+	 * 		| if (!defender.defended(this))
+	 * 		|  then defender.takeDamage(this)
+	 */
+	void resolveAttack(Unit defender) {
+		double thetaD = StrictMath.atan2((this.getY() - defender.getY()), (this.getX() - defender.getX()));
 		defender.setOrientation(thetaD);
-		isAttacking = true;
-		//
-		if (defender.defended(this)) {
-			return;
-		} else {
+		if (!defender.defended(this))
 			defender.takeDamage(this);
-		}
-
 	}
 	/**
 	 * Checks if a different unit is adjacent to this unit
@@ -817,7 +1337,7 @@ public class Unit {
 	 * 			|	then false
 	 * 			| else true 
 	 */
-	private boolean isAdjacent(Unit unit){
+	boolean isAdjacent(Unit unit){
 		int[] cubeCoordinate = this.getCubeCoordinate();
 		int[] otherCubeCoordinate = unit.getCubeCoordinate();
 
@@ -841,11 +1361,11 @@ public class Unit {
 	 * 	   | else false
 	 */
 	private boolean defended(Unit attacker) {
-		isResting=false;
+		setFlag(UnitStore.RESTING, false);
 		// dodge
 		double probabilityDodge = 0.20 * (this.getAgility() / attacker.getAgility());
 		if (success(probabilityDodge)) {
-			Random randomGenerator = new Random();
+			Random randomGenerator = random();
 			this.moveTo(new int[]{randomGenerator.nextInt(49),randomGenerator.nextInt(49),randomGenerator.nextInt(49)});
 			return true;
 
@@ -862,10 +1382,10 @@ public class Unit {
 	 * @param probability
 	 *        The given probability 
 	 * @return Returns true if the given probability is higher then a random double between 0 and 1.
-	 * 	  | (probability>Math.random())
+	 * 	  | (probability>random().nextDouble())
 	 */
 	private boolean success(double probability) {
-		return probability > Math.random();
+		return probability > random().nextDouble();
 
 	}
 	/**
@@ -878,6 +1398,7 @@ public class Unit {
 	private void takeDamage(Unit attacker) {
 		double damage = attacker.getStrength() / 10.0;
 
+		int hitPoints = getCurrentHitPoints();
 		if ((hitPoints - damage)>0)
 			this.setCurrentHitPoints((int) (hitPoints - damage));
 		else
@@ -891,40 +1412,41 @@ public class Unit {
 	 * 	| this.isAttacking
 	 */
 	public boolean isAttacking() {
-		return isAttacking;
+		return hasFlag(UnitStore.ATTACKING);
 	}
 	/**
 	 * Decreases the attack time.
 	 * @param  	dt
 	 * 			The given time.
-	 * @post The attackTime is decreased with the time dt.
-	 * 		| new.attackTime == this.attackTime - dt
-	 * @post If the attacktime decreased with dt is less then or equal to 0, isAttacking is set to false.
-	 * 		| if(attackTime <= 0)
+	 * @post The activityTimer is decreased with the time dt.
+	 * 		| new.activityTimer == this.activityTimer - dt
+	 * @post If the activityTimer decreased with dt is less then or equal to 0, isAttacking is set to false.
+	 * 		| if(activityTimer <= 0)
 	 * 		|  then new.isAttacking == false
 	 * 
 	 */
 	private void attacking(double dt) {
-		attackTime -= dt;
-		if (attackTime <= 0)
-			isAttacking = false;
+		setActivityTimer(getActivityTimer() - dt);
+		if (getActivityTimer() <= 0)
+			setFlag(UnitStore.ATTACKING, false);
 	}
 	/* Working */
 
 	/**
 	 * Make the given unit start working.
 	 * @post If the unit isn't attacking or moving, the boolean isWorking will be set to true 
-	 * 		and workTime will be set at 500 divided by the strength of the unit.
+	 * 		and activityTimer will be set at 500 divided by the strength of the unit.
 	 * 		| if((!this.isMoving)&&(!this.isAttacking)
 	 * 		|  then new.isWorking = true
-	 *		|       new.workTime = 500/(double)this.getStrength()
+	 *		|       new.activityTimer = 500/(double)this.getStrength()
 	 *
 	 */
 	public void work() {
-		if ((!this.isMoving) && (!this.isAttacking)) {
-			isMoving=false;isResting=false;isAttacking=false;
-			this.isWorking = true;
-			this.workTime = 500 / (double) this.getStrength();
+		if ((!hasFlag(UnitStore.MOVING)) && (!hasFlag(UnitStore.ATTACKING))) {
+			setFlag(UnitStore.MOVING, false);setFlag(UnitStore.RESTING, false);setFlag(UnitStore.ATTACKING, false);
+			setFlag(UnitStore.WORKING, true);
+			setFlag(UnitStore.IN_MIN_REST_TIME, false);
+			setActivityTimer(500 / (double) this.getStrength());
 		}
 	}
 
@@ -935,25 +1457,26 @@ public class Unit {
 	 * 	| this.isWorking
 	 */
 	public boolean isWorking() {
-		return isWorking;
+		return hasFlag(UnitStore.WORKING);
 	}
 	/**
 	 * decreases the working time every dt
 	 * @param dt
 	 * 			the given time
-	 * @post The workTime of the unit is decreased with dt, if workTime is greater then dt.
-	 * 		Else the workTime is set to 0 and isWorking is set to false.
-	 * 		| if(this.workTime > dt)
-	 * 		|  then new.workTime == this.workTime - dt 
-	 * 		| else new.workTime == 0
+	 * @post The activityTimer of the unit is decreased with dt, if activityTimer is greater then dt.
+	 * 		Else the activityTimer is set to 0 and isWorking is set to false.
+	 * 		| if(this.activityTimer > dt)
+	 * 		|  then new.activityTimer == this.activityTimer - dt 
+	 * 		| else new.activityTimer == 0
 	 * 		|	   new.isWorking == false
 	 */
 	private void working(double dt) {
-		if ((this.workTime - dt) > 0) {
-			this.workTime = this.workTime - dt;
+		double activityTimer = getActivityTimer();
+		if ((activityTimer - dt) > 0) {
+			setActivityTimer(activityTimer - dt);
 		} else {
-			this.isWorking = false;
-			this.workTime = 0;
+			setFlag(UnitStore.WORKING, false);
+			setActivityTimer(0);
 		}
 	}
 	/* Resting */
@@ -961,18 +1484,18 @@ public class Unit {
 	/**
 	 * Make this unit rest.
 	 * @post If the unit isn't attacking, the booleans isResting and inMinRestTime will be set to true and
-	 * 		minRestTime will be set to the time the unit needs to recover 1 hit point.
+	 * 		activityTimer will be set to the time the unit needs to recover 1 hit point.
 	 *      | if(!this.isAttacking)
 	 *      |  then this.isResting = true
 	 *      |       this.inMinRestTime =true
-	 *      |       this.minRestTime = 1/(this.getToughness()/200.0)*0.2
+	 *      |       this.activityTimer = 1/(this.getToughness()/200.0)*0.2
 	 */
 	public void rest() {
-		if (!this.isAttacking) {
-			isMoving=false;isSprinting=false;isWorking=false;isAttacking=false;
-			this.isResting = true;
-			this.inMinRestTime = true;
-			minRestTime = 1 / (this.getToughness() / 200.0) * 0.2;
+		if (!hasFlag(UnitStore.ATTACKING)) {
+			setFlag(UnitStore.MOVING, false);setFlag(UnitStore.SPRINTING, false);setFlag(UnitStore.WORKING, false);setFlag(UnitStore.ATTACKING, false);
+			setFlag(UnitStore.RESTING, true);
+			setFlag(UnitStore.IN_MIN_REST_TIME, true);
+			setActivityTimer(TIME_TO_RECOVER_HIT_POINT[this.getToughness()]);
 		}
 	}
 
@@ -983,74 +1506,86 @@ public class Unit {
 	 * 	| this.isResting
 	 */
 	public boolean isResting() {
-		return isResting;
+		return hasFlag(UnitStore.RESTING);
 	}
 	/**
 	 * adds hitpoint and staminapoint when resting
 	 * @param dt
 	 * 		The given time.
-	 * @post if the boolean inMinRestTime of the unit is still true and the minRestTime of te unit is greater then dt, 
-	 * 		then the minRestTime of the unit is decreased with dt.
+	 * @post if the boolean inMinRestTime of the unit is still true and the activityTimer of te unit is greater then dt, 
+	 * 		then the activityTimer of the unit is decreased with dt.
 	 * 		|if (this.inMinRestTime){
-	 * 		| if (minRestTime - dt) > 0)
-	 * 		|  then new.minRestTime == this.minRestTime - dt} 	
-	 * @post if the boolean inMinRestTime of the unit is still true and the minRestTime of the unit is smaller thhen dt,
-	 * 		the minRestTime of the unit is set to 0 and the the boolean inMinRestTime is set to false.
+	 * 		| if (activityTimer - dt) > 0)
+	 * 		|  then new.activityTimer == this.activityTimer - dt} 	
+	 * @post if the boolean inMinRestTime of the unit is still true and the activityTimer of the unit is smaller thhen dt,
+	 * 		the activityTimer of the unit is set to 0 and the the boolean inMinRestTime is set to false.
 	 * 		|if (this.inMinRestTime){
-	 * 		| if ((minRestTime - dt) <= 0)
-	 * 		|  then new.minRestTime == this.minRestTime - dt)}
+	 * 		| if ((activityTimer - dt) <= 0)
+	 * 		|  then new.activityTimer == this.activityTimer - dt)}
 	 * @post If the unit has the maximum hitpoints and staminapoints it is able to have, isResting is set to false,
 	 * 		restTime is set to 0  and enableDefaultBehaviour is set to true.
 	 * 		| if (this.getCurrentHitPoints() == this.getMaxHitPoints()
 	 *		|	&& this.getCurrentStaminaPoints() == this.getMaxStaminaPoints())
 	 * 		| then new.resTime ==0, new.enableDefaultBehaviour == true, new.isResting == false
 	 * @post If the units current hitpoint is smaller then its maximum hitpoints and if the units resttime increased with dt is greater 
-	 * 		then the time to recover a hitpoint, the hipoints will be increased with one.
+	 * 		then the time to recover a hitpoint, the hipoints will be increased with the number of hitpoints recovered in that time.
 	 * 		| if (this.getCurrentHitPoints() < this.getMaxHitPoints()) && (restTime +dt > timeToRecoverHitPoint)
-	 * 		| then new.getCurrentHitPoints() == this.getCurrentHitPoints() +1
+	 * 		| then new.getCurrentHitPoints() == this.getCurrentHitPoints() + recoveredPoints(timeToRecoverHitPoint, missing hitpoints)
 	 * @post If the unit has maximum hitpoints but not maximum stamimapoints and if the units resttime increased with dt is greater 
-	 * 		then the time to recover a staminapoint, the staminapoints will be increased with one.
+	 * 		then the time to recover a staminapoint, the staminapoints will be increased with the number of staminapoints recovered in that time.
 	 * 		| if (this.getCurrentStaminaPoints() < this.getMaxStaminaPoints()) && (this.getCurrentStaminaPoints() == this.getMaxStaminaPoints())
-	 * 		| then new.getCurrentStaminaPoints() == this.getCurrentStaminaPoints() +1
+	 * 		| then new.getCurrentStaminaPoints() == this.getCurrentStaminaPoints() + recoveredPoints(timeToRecoverStaminaPoint, missing staminapoints)
 	 * 
 	 */
 	private void resting(double dt) {
-		if (this.inMinRestTime) {
-			if ((minRestTime - dt) <= 0) {
-				this.inMinRestTime = false;
-				minRestTime = 0;
+		if (hasFlag(UnitStore.IN_MIN_REST_TIME)) {
+			double activityTimer = getActivityTimer();
+			if ((activityTimer - dt) <= 0) {
+				setFlag(UnitStore.IN_MIN_REST_TIME, false);
+				setActivityTimer(0);
 			}
 
 			else
-				minRestTime -= dt;
+				setActivityTimer(activityTimer - dt);
 
 		}
 
-		restTime += dt;
+		setRestTime(getRestTime() + dt);
 
 		if (this.getCurrentHitPoints() == this.getMaxHitPoints()
 				&& this.getCurrentStaminaPoints() == this.getMaxStaminaPoints()) {
-			if (this.enableDefaultBehaviour)
+			if (hasFlag(UnitStore.DEFAULT_BEHAVIOUR))
 				startDefaultBehaviour();
-			this.isResting = false;
-			restTime = 0.0;
+			setFlag(UnitStore.RESTING, false);
+			setRestTime(0.0);
 		} else if (this.getCurrentHitPoints() < this.getMaxHitPoints()) {
-			double timeToRecoverHitPoint = (1 / (this.getToughness() / 200.0) * 0.2);
-
-			if (restTime > timeToRecoverHitPoint) {
-				this.setCurrentHitPoints(this.getCurrentHitPoints() + 1);
-				restTime -= timeToRecoverHitPoint;
-			}
+			int points = recoveredPoints(HIT_POINTS_PER_SECOND[this.getToughness()],
+					this.getMaxHitPoints() - this.getCurrentHitPoints());
+			this.setCurrentHitPoints(this.getCurrentHitPoints() + points);
+			setRestTime(getRestTime() - points * TIME_TO_RECOVER_HIT_POINT[this.getToughness()]);
 
 		} else if (this.getCurrentStaminaPoints() < this.getMaxStaminaPoints()) {
-			double timeToRecoverStaminaPoint = (1 / (this.getToughness() / 100.0) * 0.2);
-			if (restTime > timeToRecoverStaminaPoint) {
-				this.setCurrentStaminaPoints(this.getCurrentStaminaPoints() + 1);
-				restTime -= timeToRecoverStaminaPoint;
-			}
+			int points = recoveredPoints(STAMINA_POINTS_PER_SECOND[this.getToughness()],
+					this.getMaxStaminaPoints() - this.getCurrentStaminaPoints());
+			this.setCurrentStaminaPoints(this.getCurrentStaminaPoints() + points);
+			setRestTime(getRestTime() - points * TIME_TO_RECOVER_STAMINA_POINT[this.getToughness()]);
 		}
 	}
 
+	/**
+	 * Returns the number of points recovered in the rest time of the unit.
+	 * @param pointsPerSecond
+	 * 		The number of points recovered per second.
+	 * @param missingPoints
+	 * 		The number of points the unit can still recover.
+	 * @return The number of times the rest time is longer then the time to recover a point,
+	 * 		but at most the number of missing points.
+	 * 		| Math.min(missingPoints, Math.max(0, (int) Math.ceil(restTime * pointsPerSecond) - 1))
+	 */
+	private int recoveredPoints(double pointsPerSecond, int missingPoints) {
+		return Math.min(missingPoints, Math.max(0, (int) Math.ceil(getRestTime() * pointsPerSecond) - 1));
+	}
+
 	/* Default behaviour */
 	/**
 	 * Returns whether the default behaviour is enabled or not. The default
@@ -1064,7 +1599,7 @@ public class Unit {
 	 */
 	@Basic
 	public boolean isDefaultBehaviourEnabled() {
-		return enableDefaultBehaviour;
+		return hasFlag(UnitStore.DEFAULT_BEHAVIOUR);
 	}
 
 	/**
@@ -1077,7 +1612,7 @@ public class Unit {
 	 * 	| new.isDefaultBehaviourEnabled() = enableDefaultBehaviour
 	 */
 	public void setDefaultBehaviourEnabled(boolean enableDefaultBehaviour) {
-		this.enableDefaultBehaviour = enableDefaultBehaviour;
+		setFlag(UnitStore.DEFAULT_BEHAVIOUR, enableDefaultBehaviour);
 		if (enableDefaultBehaviour)
 			startDefaultBehaviour();
 	}
@@ -1087,10 +1622,25 @@ public class Unit {
 	 * 
 	 * @effect The default behaviour state is set to true. 
 	 *         |new.isDefaultBehaviourEnabled() = true
+	 * @effect If the world of the unit finds a hostile unit nearby, the unit attacks it if it is adjacent
+	 * 		and moves towards it otherwise. 
+	 * 		| if (getWorld() != null && getWorld().findNearestEnemy(this) != null)
+	 * 		|  then if (isAdjacent(enemy)) attack(enemy)
+	 * 		|       else moveTo(enemy.getCubeCoordinate())
 	 */
 	private void startDefaultBehaviour() {
-		this.enableDefaultBehaviour = true;
-		Random randomGenerator = new Random();
+		setFlag(UnitStore.DEFAULT_BEHAVIOUR, true);
+		if (world != null) {
+			Unit enemy = world.findNearestEnemy(this);
+			if (enemy != null) {
+				if (isAdjacent(enemy))
+					attack(enemy);
+				else
+					moveTo(enemy.getCubeCoordinate());
+				return;
+			}
+		}
+		Random randomGenerator = random();
 		int randomBehaviour =randomGenerator.nextInt(3);
 		if (randomBehaviour==0)
 			rest();
@@ -1109,6 +1659,6 @@ public class Unit {
 	 *         new.isDefaultBehaviourEnabled() = false
 	 */
 	private void stopDefaultBehaviour() {
-		this.enableDefaultBehaviour = false;
+		setFlag(UnitStore.DEFAULT_BEHAVIOUR, false);
 	}
 }
@@ -0,0 +1,152 @@
+package hillbillies.model;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class of running totals over the units of a world: how many units there are, how
+ * many of them are in each activity, their total hit points and how many units are in
+ * each region of the world. The totals are updated whenever a unit changes activity,
+ * hit points or region, so every query takes constant time. The regions are the cells
+ * of the interest manager, with InterestManager.CELL_SIZE cubes in every dimension.
+ *
+ * Activities and hit points may change from several threads while attacks are resolved
+ * in parallel, so those totals are kept in atomic counters.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ * @invar Every total is equal to the total over all units of the world.
+ */
+public class UnitAggregates {
+
+	/* Indices in activities, the bits of the activity flags of a unit */
+	private static final int MOVING = 0, SPRINTING = 1, WORKING = 2, RESTING = 3, ATTACKING = 4, ACTIVITIES = 5;
+
+	private int unitCount;
+	private final AtomicIntegerArray activities = new AtomicIntegerArray(ACTIVITIES);
+	private final AtomicLong totalHitPoints = new AtomicLong();
+	private final int[] regionCounts = new int[InterestManager.CELLS * InterestManager.CELLS
+			* InterestManager.CELLS];
+
+	/**
+	 * Returns the number of units in the world.
+	 */
+	public int getUnitCount() {
+		return this.unitCount;
+	}
+
+	/**
+	 * Returns the number of moving units.
+	 */
+	public int getMovingCount() {
+		return activities.get(MOVING);
+	}
+
+	/**
+	 * Returns the number of sprinting units.
+	 */
+	public int getSprintingCount() {
+		return activities.get(SPRINTING);
+	}
+
+	/**
+	 * Returns the number of working units.
+	 */
+	public int getWorkingCount() {
+		return activities.get(WORKING);
+	}
+
+	/**
+	 * Returns the number of resting units.
+	 */
+	public int getRestingCount() {
+		return activities.get(RESTING);
+	}
+
+	/**
+	 * Returns the number of attacking units.
+	 */
+	public int getAttackingCount() {
+		return activities.get(ATTACKING);
+	}
+
+	/**
+	 * Returns the sum of the current hit points of all units.
+	 */
+	public long getTotalHitPoints() {
+		return totalHitPoints.get();
+	}
+
+	/**
+	 * Returns the average current hit points of the units.
+	 *
+	 * @return | getUnitCount() == 0 ? 0 : getTotalHitPoints() / (double) getUnitCount()
+	 */
+	public double getAverageHitPoints() {
+		int count = unitCount;
+		return count == 0 ? 0 : getTotalHitPoints() / (double) count;
+	}
+
+	/**
+	 * Returns the number of units in the region containing the cube with the given
+	 * coordinates.
+	 *
+	 * @throws IllegalArgumentException
+	 *             | !OccupancyMap.isInside(x,y,z)
+	 */
+	public int getRegionUnitCount(int x, int y, int z) throws IllegalArgumentException {
+		if (!OccupancyMap.isInside(x, y, z))
+			throw new IllegalArgumentException();
+		return regionCounts[InterestManager.cellOf(x, y, z)];
+	}
+
+	/**
+	 * Add a unit with the given activity flags and hit points in the given region to the totals.
+	 */
+	void unitAdded(int flags, int hitPoints, int cell) {
+		unitCount++;
+		flagsChanged(0, flags);
+		totalHitPoints.addAndGet(hitPoints);
+		regionCounts[cell]++;
+	}
+
+	/**
+	 * Remove a unit with the given activity flags and hit points in the given region from the totals.
+	 */
+	void unitRemoved(int flags, int hitPoints, int cell) {
+		unitCount--;
+		flagsChanged(flags, 0);
+		totalHitPoints.addAndGet(-hitPoints);
+		if (cell >= 0)
+			regionCounts[cell]--;
+	}
+
+	/**
+	 * Update the activity totals after the activity flags of a unit changed from the given
+	 * old flags to the given new flags.
+	 */
+	void flagsChanged(int oldFlags, int newFlags) {
+		int changed = oldFlags ^ newFlags;
+		for (int activity = 0; changed >> activity != 0 && activity < ACTIVITIES; activity++)
+			if ((changed & (1 << activity)) != 0)
+				activities.addAndGet(activity, (newFlags & (1 << activity)) != 0 ? 1 : -1);
+	}
+
+	/**
+	 * Update the total hit points after the hit points of a unit changed by the given amount.
+	 */
+	void hitPointsChanged(int delta) {
+		totalHitPoints.addAndGet(delta);
+	}
+
+	/**
+	 * Update the region totals after a unit moved from the given region to the given region.
+	 */
+	void regionChanged(int oldCell, int newCell) {
+		if (oldCell == newCell)
+			return;
+		if (oldCell >= 0)
+			regionCounts[oldCell]--;
+		regionCounts[newCell]++;
+	}
+}
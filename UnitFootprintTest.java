@@ -0,0 +1,86 @@
+package hillbillies.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Tests of the memory a unit retains on the heap, measured with JOL on a 64-bit HotSpot
+ * JVM with compressed references.
+ *
+ * Before the activity booleans became bit flags, the attributes shorts, the position and
+ * target position primitive doubles and the timers one field, an idle unit retained 208
+ * bytes and a moving unit 328 bytes, most of it in arrays. That compact layout is now the
+ * record of the unit in the unit store of its world. In the on-heap mode, the default,
+ * the store is a buffer on the heap, so a unit retains its handle and its record; with
+ * off-heap state enabled only the handle is left on the heap.
+ *
+ * The memory retained by the units of a world is what the object graph of the world loses
+ * when they are removed. The world and its unit store are shared by all units and the name
+ * is an interned string, so they are not counted. The record of a unit is part of the
+ * buffer of the shared store, so it is added to the size of the handle.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class UnitFootprintTest {
+
+	private static final String NAME = "TestUnit";
+
+	private World world;
+	private Unit[] units;
+
+	@Before
+	public void setUp() {
+		world = new World();
+		units = new Unit[64];
+		for (int i = 0; i < units.length; i++) {
+			units[i] = new Unit(NAME, new int[] { 3 + i % 8, 3 + i / 8, 3 }, 50, 50, 50, 50, false);
+			world.addUnit(units[i]);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes on the heap retained by one unit of the world, without
+	 * its record.
+	 */
+	private long retainedHandleSize() {
+		GraphLayout withUnits = GraphLayout.parseInstance(world);
+		for (Unit unit : units)
+			world.removeUnit(unit);
+		GraphLayout withoutUnits = GraphLayout.parseInstance(world);
+		return withUnits.subtract(withoutUnits).subtract(GraphLayout.parseInstance(NAME)).totalSize() / units.length;
+	}
+
+	private void moveAll() {
+		for (Unit unit : units)
+			unit.moveTo(new int[] { 40, 40, 10 });
+		world.advanceTime(0.1);
+		for (Unit unit : units)
+			assertTrue(unit.isMoving());
+	}
+
+	@Test
+	public void testIdleUnitFootprint() {
+		long size = retainedHandleSize() + UnitStore.RECORD_SIZE;
+		assertTrue("An idle unit should retain less than 208 bytes, it retains " + size, size < 208);
+	}
+
+	@Test
+	public void testMovingUnitFootprint() {
+		moveAll();
+		long size = retainedHandleSize() + UnitStore.RECORD_SIZE;
+		assertTrue("A moving unit should retain less than 328 bytes, it retains " + size, size < 328);
+	}
+
+	@Test
+	public void testOffHeapUnitFootprint() {
+		world.setOffHeapStateEnabled(true);
+		moveAll();
+		long size = retainedHandleSize();
+		assertTrue("A unit with its state off the heap should retain at most 32 bytes, it retains " + size,
+				size <= 32);
+	}
+}
@@ -0,0 +1,164 @@
+package hillbillies.model;
+
+/**
+ * A class of cursors on the records of a unit store. A cursor reads the state of one
+ * unit at a time and is moved to another unit by giving it the id of that unit, so any
+ * number of units can be read with one cursor.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class UnitRecord {
+
+	private final UnitStore store;
+	private int id = -1;
+
+	/**
+	 * Initialize this new cursor on the given store, on no record.
+	 */
+	UnitRecord(UnitStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Move this cursor to the record of the unit with the given id.
+	 *
+	 * @param id
+	 *            The id of the unit to read.
+	 * @return This cursor.
+	 * @throws IllegalArgumentException
+	 *             The store holds no unit with the given id.
+	 *             | !store.contains(id)
+	 */
+	public UnitRecord at(int id) throws IllegalArgumentException {
+		if (!store.contains(id))
+			throw new IllegalArgumentException();
+		this.id = id;
+		return this;
+	}
+
+	/**
+	 * Move this cursor to the record of the given unit.
+	 *
+	 * @effect | at(unit.getId())
+	 */
+	public UnitRecord at(Unit unit) throws IllegalArgumentException {
+		return at(unit.getId());
+	}
+
+	/**
+	 * Returns the id of the unit this cursor is on, or -1 if it is on no record.
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	/**
+	 * Returns the x coordinate of the unit this cursor is on.
+	 */
+	public double getX() {
+		return store.getDouble(id, UnitStore.X);
+	}
+
+	/**
+	 * Returns the y coordinate of the unit this cursor is on.
+	 */
+	public double getY() {
+		return store.getDouble(id, UnitStore.Y);
+	}
+
+	/**
+	 * Returns the z coordinate of the unit this cursor is on.
+	 */
+	public double getZ() {
+		return store.getDouble(id, UnitStore.Z);
+	}
+
+	/**
+	 * Returns the x coordinate of the target position of the unit this cursor is on.
+	 */
+	public double getTargetX() {
+		return store.getDouble(id, UnitStore.TARGET_X);
+	}
+
+	/**
+	 * Returns the y coordinate of the target position of the unit this cursor is on.
+	 */
+	public double getTargetY() {
+		return store.getDouble(id, UnitStore.TARGET_Y);
+	}
+
+	/**
+	 * Returns the z coordinate of the target position of the unit this cursor is on.
+	 */
+	public double getTargetZ() {
+		return store.getDouble(id, UnitStore.TARGET_Z);
+	}
+
+	/**
+	 * Returns the orientation of the unit this cursor is on.
+	 */
+	public double getOrientation() {
+		return store.getDouble(id, UnitStore.ORIENTATION);
+	}
+
+	/**
+	 * Returns the hit points of the unit this cursor is on.
+	 */
+	public int getCurrentHitPoints() {
+		return store.getInt(id, UnitStore.HIT_POINTS);
+	}
+
+	/**
+	 * Returns the stamina points of the unit this cursor is on.
+	 */
+	public int getCurrentStaminaPoints() {
+		return store.getInt(id, UnitStore.STAMINA_POINTS);
+	}
+
+	/**
+	 * Returns the faction of the unit this cursor is on.
+	 */
+	public int getFaction() {
+		return store.getInt(id, UnitStore.FACTION);
+	}
+
+	/**
+	 * Returns whether the unit this cursor is on is moving.
+	 */
+	public boolean isMoving() {
+		return hasFlag(UnitStore.MOVING);
+	}
+
+	/**
+	 * Returns whether the unit this cursor is on is sprinting.
+	 */
+	public boolean isSprinting() {
+		return hasFlag(UnitStore.SPRINTING);
+	}
+
+	/**
+	 * Returns whether the unit this cursor is on is working.
+	 */
+	public boolean isWorking() {
+		return hasFlag(UnitStore.WORKING);
+	}
+
+	/**
+	 * Returns whether the unit this cursor is on is resting.
+	 */
+	public boolean isResting() {
+		return hasFlag(UnitStore.RESTING);
+	}
+
+	/**
+	 * Returns whether the unit this cursor is on is attacking.
+	 */
+	public boolean isAttacking() {
+		return hasFlag(UnitStore.ATTACKING);
+	}
+
+	private boolean hasFlag(int flag) {
+		return (store.getInt(id, UnitStore.FLAGS) & flag) != 0;
+	}
+}
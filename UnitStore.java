@@ -0,0 +1,217 @@
+package hillbillies.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A class of stores holding the state of units in records of fixed size. A unit is a
+ * handle on one record of a store: all its primitive state is read from and written to
+ * that record, at the offset given by the id of the unit in its world. A store keeps its
+ * records on the heap, or in one direct buffer outside the heap, so the garbage collector
+ * never scans them and a copy of the whole store is a single bulk memory copy. A unit that
+ * does not belong to a world has a store of its own on the heap with a single record.
+ *
+ * A copy of a store is read through a unit record, a cursor that can be moved from one
+ * record to another without allocating.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class UnitStore {
+
+	/* Record layout */
+	static final int X = 0, Y = 8, Z = 16, TARGET_X = 24, TARGET_Y = 32, TARGET_Z = 40, ORIENTATION = 48,
+			BASE_SPEED = 56, ACTIVITY_TIMER = 64, REST_TIME = 72, SPRINTED_TIME = 80, TIME_TILL_REST = 88,
+			HIT_POINTS = 96, STAMINA_POINTS = 100, MAX_POINTS = 104, FLAGS = 108, FACTION = 112, PRESENT = 116,
+			STRENGTH = 120, WEIGHT = 122, AGILITY = 124, TOUGHNESS = 126;
+
+	/**
+	 * The number of bytes of one record.
+	 */
+	public static final int RECORD_SIZE = 128;
+
+	/**
+	 * The bits of the activity flags of a unit. The moving, sprinting, working, resting and
+	 * attacking flags are bits 0 to 4.
+	 */
+	static final int MOVING = 1, SPRINTING = 2, WORKING = 4, RESTING = 8, ATTACKING = 16, IN_MIN_REST_TIME = 32,
+			DEFAULT_BEHAVIOUR = 64;
+
+	private ByteBuffer buffer;
+	private int capacity;
+	private long tick = -1;
+
+	/**
+	 * Initialize this new store with room for the given number of units.
+	 *
+	 * @param capacity
+	 *            The number of records to allocate.
+	 * @param offHeap
+	 *            Whether the records are kept outside the heap.
+	 * @post | new.isOffHeap() == offHeap
+	 * @throws IllegalArgumentException
+	 *             | capacity < 0
+	 */
+	public UnitStore(int capacity, boolean offHeap) throws IllegalArgumentException {
+		if (capacity < 0)
+			throw new IllegalArgumentException();
+		this.buffer = allocate(capacity, offHeap);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns a new store on the heap with a single record, for a unit that does not belong
+	 * to a world.
+	 */
+	static UnitStore detached() {
+		return new UnitStore(1, false);
+	}
+
+	private static ByteBuffer allocate(int capacity, boolean offHeap) {
+		ByteBuffer result = offHeap ? ByteBuffer.allocateDirect(capacity * RECORD_SIZE)
+				: ByteBuffer.allocate(capacity * RECORD_SIZE);
+		return result.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Returns the number of records in this store.
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Returns whether the records of this store are kept outside the heap.
+	 */
+	public boolean isOffHeap() {
+		return buffer.isDirect();
+	}
+
+	/**
+	 * Move the records of this store to the heap or outside the heap. This may only be
+	 * done while the units of this store are not advancing.
+	 *
+	 * @post | new.isOffHeap() == offHeap
+	 * @post The records of this store are not changed.
+	 */
+	void setOffHeap(boolean offHeap) {
+		if (offHeap != isOffHeap())
+			replaceBuffer(capacity, offHeap);
+	}
+
+	/**
+	 * Returns the number of the tick the records of this store were last advanced to, or -1
+	 * if they were never advanced.
+	 */
+	public long getTick() {
+		return this.tick;
+	}
+
+	void setTick(long tick) {
+		this.tick = tick;
+	}
+
+	/**
+	 * Returns a new cursor on the records of this store.
+	 */
+	public UnitRecord newRecord() {
+		return new UnitRecord(this);
+	}
+
+	/**
+	 * Checks whether this store holds the state of a unit with the given id.
+	 */
+	public boolean contains(int id) {
+		return 0 <= id && id < capacity && getInt(id, PRESENT) != 0;
+	}
+
+	double getDouble(int slot, int field) {
+		return buffer.getDouble(slot * RECORD_SIZE + field);
+	}
+
+	void putDouble(int slot, int field, double value) {
+		buffer.putDouble(slot * RECORD_SIZE + field, value);
+	}
+
+	int getInt(int slot, int field) {
+		return buffer.getInt(slot * RECORD_SIZE + field);
+	}
+
+	void putInt(int slot, int field, int value) {
+		buffer.putInt(slot * RECORD_SIZE + field, value);
+	}
+
+	short getShort(int slot, int field) {
+		return buffer.getShort(slot * RECORD_SIZE + field);
+	}
+
+	void putShort(int slot, int field, short value) {
+		buffer.putShort(slot * RECORD_SIZE + field, value);
+	}
+
+	/**
+	 * Copy the record with the given slot of the given store to the record with the given
+	 * slot of this store, and mark the record of the given store as empty.
+	 *
+	 * @post | new.contains(slot) && !(new from).contains(fromSlot)
+	 */
+	void moveRecord(UnitStore from, int fromSlot, int slot) {
+		ensureCapacity(slot + 1);
+		ByteBuffer source = from.buffer.duplicate();
+		source.limit((fromSlot + 1) * RECORD_SIZE).position(fromSlot * RECORD_SIZE);
+		ByteBuffer target = buffer.duplicate();
+		target.position(slot * RECORD_SIZE);
+		target.put(source);
+		putInt(slot, PRESENT, 1);
+		from.putInt(fromSlot, PRESENT, 0);
+	}
+
+	/**
+	 * Overwrite the given store with a copy of all records of this store. This may only
+	 * be done while the units of this store are not advancing.
+	 *
+	 * @param other
+	 *            The store to copy to.
+	 * @post The given store holds the same records as this store.
+	 * 		| other.getCapacity() >= this.getCapacity() && other.getTick() == this.getTick()
+	 * 		| for each id: other.contains(id) == this.contains(id)
+	 */
+	public void copyTo(UnitStore other) {
+		other.ensureCapacity(capacity);
+		ByteBuffer source = buffer.duplicate();
+		source.clear().limit(capacity * RECORD_SIZE);
+		ByteBuffer target = other.buffer.duplicate();
+		target.clear();
+		target.put(source);
+		for (int id = capacity; id < other.capacity; id++)
+			other.putInt(id, PRESENT, 0);
+		other.tick = this.tick;
+	}
+
+	/**
+	 * Returns a new store, outside the heap if this store is, holding a copy of all records
+	 * of this store.
+	 *
+	 * @effect | copyTo(result)
+	 */
+	public UnitStore copy() {
+		UnitStore result = new UnitStore(capacity, isOffHeap());
+		copyTo(result);
+		return result;
+	}
+
+	private void ensureCapacity(int n) {
+		if (n > capacity)
+			replaceBuffer(Math.max(n, 2 * capacity), isOffHeap());
+	}
+
+	private void replaceBuffer(int length, boolean offHeap) {
+		ByteBuffer replacement = allocate(length, offHeap);
+		ByteBuffer source = buffer.duplicate();
+		source.clear();
+		replacement.put(source);
+		replacement.clear();
+		this.buffer = replacement;
+		this.capacity = length;
+	}
+}
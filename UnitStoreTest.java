@@ -0,0 +1,179 @@
+package hillbillies.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the unit store, checking that a unit whose state is kept outside the heap, or in
+ * a store of its own, behaves the same as a unit whose state is kept on the heap.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class UnitStoreTest {
+
+	private World heapWorld, offHeapWorld;
+	private Unit reference, offHeap, detached;
+
+	@Before
+	public void setUp() {
+		heapWorld = new World();
+		offHeapWorld = new World();
+		offHeapWorld.setOffHeapStateEnabled(true);
+		reference = new Unit("TestUnit", new int[] { 3, 3, 3 }, 60, 40, 70, 30, false);
+		offHeap = new Unit("TestUnit", new int[] { 3, 3, 3 }, 60, 40, 70, 30, false);
+		detached = new Unit("TestUnit", new int[] { 3, 3, 3 }, 60, 40, 70, 30, false);
+		heapWorld.addUnit(reference);
+		offHeapWorld.addUnit(new Unit("OtherUnit", new int[] { 20, 20, 20 }, 50, 50, 50, 50, false));
+		offHeapWorld.addUnit(offHeap);
+	}
+
+	private Unit[] units() {
+		return new Unit[] { reference, offHeap, detached };
+	}
+
+	private static void assertSameState(Unit expected, Unit actual) {
+		assertArrayEquals(expected.getPosition(), actual.getPosition(), 0);
+		assertEquals(expected.getOrientation(), actual.getOrientation(), 0);
+		assertEquals(expected.getCurrentSpeed(), actual.getCurrentSpeed(), 0);
+		assertEquals(expected.getStrength(), actual.getStrength());
+		assertEquals(expected.getWeight(), actual.getWeight());
+		assertEquals(expected.getAgility(), actual.getAgility());
+		assertEquals(expected.getToughness(), actual.getToughness());
+		assertEquals(expected.getMaxHitPoints(), actual.getMaxHitPoints());
+		assertEquals(expected.getCurrentHitPoints(), actual.getCurrentHitPoints());
+		assertEquals(expected.getCurrentStaminaPoints(), actual.getCurrentStaminaPoints());
+		assertEquals(expected.getFaction(), actual.getFaction());
+		assertEquals(expected.getFlags(), actual.getFlags());
+	}
+
+	private void assertSameState() {
+		assertSameState(reference, offHeap);
+		assertSameState(reference, detached);
+	}
+
+	private void advanceAll(double seconds) {
+		for (double t = 0; t < seconds; t += 0.1) {
+			for (Unit unit : units())
+				unit.advanceTime(0.1);
+			assertSameState();
+		}
+	}
+
+	@Test
+	public void testStoreKinds() {
+		assertFalse(heapWorld.isOffHeapStateEnabled());
+		assertTrue(offHeapWorld.isOffHeapStateEnabled());
+		assertTrue(offHeapWorld.getUnitStore().contains(offHeap.getId()));
+	}
+
+	@Test
+	public void testConstructorSameState() {
+		assertSameState();
+	}
+
+	@Test
+	public void testAttributesSameState() {
+		for (Unit unit : units()) {
+			unit.setStrength(250);
+			unit.setAgility(0);
+			unit.setWeight(10);
+			unit.setToughness(120);
+			unit.setFaction(3);
+			unit.setOrientation(-1);
+		}
+		assertSameState();
+		assertEquals(200, offHeap.getStrength());
+		assertEquals(1, offHeap.getAgility());
+		assertEquals(101, offHeap.getWeight());
+		assertEquals(3, offHeap.getFaction());
+	}
+
+	@Test
+	public void testMovingAndSprintingSameState() {
+		for (Unit unit : units())
+			unit.moveTo(new int[] { 12, 8, 5 });
+		advanceAll(0.5);
+		for (Unit unit : units())
+			unit.startSprinting();
+		assertTrue(offHeap.isSprinting());
+		advanceAll(3);
+		int staminaPoints = offHeap.getCurrentStaminaPoints();
+		assertTrue(staminaPoints < offHeap.getMaxStaminaPoints());
+		for (Unit unit : units())
+			unit.rest();
+		advanceAll(2);
+		assertTrue(offHeap.getCurrentStaminaPoints() > staminaPoints);
+	}
+
+	@Test
+	public void testWorkingSameState() {
+		for (Unit unit : units())
+			unit.work();
+		advanceAll(2);
+		assertTrue(offHeap.isWorking());
+	}
+
+	@Test
+	public void testSwitchKeepsState() {
+		for (Unit unit : units())
+			unit.moveTo(new int[] { 9, 3, 3 });
+		advanceAll(0.5);
+		offHeapWorld.setOffHeapStateEnabled(false);
+		heapWorld.setOffHeapStateEnabled(true);
+		assertSameState();
+		advanceAll(0.5);
+	}
+
+	@Test
+	public void testRemoveUnitKeepsState() {
+		offHeap.moveTo(new int[] { 9, 3, 3 });
+		offHeap.advanceTime(0.2);
+		double[] position = offHeap.getPosition();
+		int flags = offHeap.getFlags();
+		int id = offHeap.getId();
+		offHeapWorld.removeUnit(offHeap);
+		assertFalse(offHeapWorld.getUnitStore().contains(id));
+		assertArrayEquals(position, offHeap.getPosition(), 0);
+		assertEquals(flags, offHeap.getFlags());
+		offHeapWorld.addUnit(offHeap);
+		assertArrayEquals(position, offHeap.getPosition(), 0);
+		assertTrue(offHeapWorld.getUnitStore().contains(offHeap.getId()));
+	}
+
+	@Test
+	public void testRecordReadsUnitState() {
+		offHeap.moveTo(new int[] { 9, 3, 3 });
+		offHeapWorld.advanceTime(0.1);
+		UnitRecord record = offHeapWorld.getUnitStore().newRecord().at(offHeap);
+		assertEquals(offHeap.getX(), record.getX(), 0);
+		assertEquals(offHeap.getY(), record.getY(), 0);
+		assertEquals(offHeap.getZ(), record.getZ(), 0);
+		assertEquals(offHeap.getTargetX(), record.getTargetX(), 0);
+		assertEquals(offHeap.getOrientation(), record.getOrientation(), 0);
+		assertEquals(offHeap.getCurrentHitPoints(), record.getCurrentHitPoints());
+		assertEquals(offHeap.isMoving(), record.isMoving());
+	}
+
+	@Test
+	public void testCopyIsIndependent() {
+		offHeap.moveTo(new int[] { 9, 3, 3 });
+		offHeapWorld.advanceTime(0.1);
+		UnitStore copy = offHeapWorld.getUnitStore().copy();
+		assertTrue(copy.isOffHeap());
+		double x = offHeap.getX();
+		offHeapWorld.advanceTime(0.1);
+		assertEquals(offHeapWorld.getTick() - 1, copy.getTick());
+		assertEquals(x, copy.newRecord().at(offHeap).getX(), 0);
+		assertTrue(offHeap.getX() > x);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRecordOfRemovedUnit() {
+		int id = offHeap.getId();
+		offHeapWorld.removeUnit(offHeap);
+		offHeapWorld.getUnitStore().newRecord().at(id);
+	}
+}
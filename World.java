@@ -0,0 +1,976 @@
+package hillbillies.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import jdk.jfr.EventType;
+
+import be.kuleuven.cs.som.annotate.*;
+
+/**
+ * A class of game worlds containing units. The world keeps track of the cubes
+ * the units occupy.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ * @invar Every unit of the world is registered in the occupancy map in the cube
+ *        it occupies.
+ */
+public class World {
+
+	/**
+	 * The flight recorder event type of a tick, to check whether ticks are recorded
+	 * without creating an event.
+	 */
+	private static final EventType TICK_EVENT_TYPE = EventType.getEventType(TickEvent.class);
+
+	private final List<Unit> units = new ArrayList<Unit>();
+	private final List<Integer> freeIds = new ArrayList<Integer>();
+	private final List<RemovalListener> removalListeners = new ArrayList<RemovalListener>();
+	private Unit[] unitsById = new Unit[16];
+	private int nextId;
+	private final OccupancyMap occupancyMap;
+	private final CombatResolver combatResolver = new CombatResolver(this);
+	private final CommandInbox inbox = new CommandInbox();
+	private volatile WorldSnapshot snapshot = new WorldSnapshot();
+	private WorldSnapshot previousSnapshot = new WorldSnapshot();
+	private boolean snapshotsEnabled;
+	private final UnitStore unitStore = new UnitStore(16, false);
+	private final TickMetrics metrics = new TickMetrics();
+	private final InterestManager interestManager = new InterestManager(this);
+	private final UnitAggregates aggregates = new UnitAggregates();
+	private boolean levelOfDetailEnabled;
+	private int levelOfDetailInterval = 10;
+	private double[] pendingTime = new double[16];
+	private long[] engagedUntil = new long[16];
+	private MovementKernel movementKernel;
+	private int[] moveSlot = new int[16];
+	private int[] unitIndex = new int[16];
+	private double[] moveX = new double[16], moveY = new double[16], moveZ = new double[16],
+			moveTargetX = new double[16], moveTargetY = new double[16], moveTargetZ = new double[16],
+			moveSpeed = new double[16];
+	private boolean[] moveArrived = new boolean[16];
+	private long tick;
+	private int targetAcquisitionRadius;
+	private boolean lockstep;
+	private ShardedWorld shardedWorld;
+	private int shardMinX, shardMaxX = OccupancyMap.SIZE;
+	private final List<Unit> leavingUnits = new ArrayList<Unit>();
+	private final List<Command> forwardedCommands = new ArrayList<Command>();
+	private int[] borderOccupancy, borderCrowdLimits;
+	private Random random;
+	private long stateHash;
+
+	/**
+	 * Initialize this new world without units and without crowd limits.
+	 *
+	 * @effect | this(OccupancyMap.NO_CROWD_LIMIT)
+	 */
+	public World() {
+		this(OccupancyMap.NO_CROWD_LIMIT);
+	}
+
+	/**
+	 * Initialize this new world without units and with the given crowd limit.
+	 *
+	 * @param crowdLimit
+	 *            The maximum number of units allowed in one cube.
+	 * @post The occupancy map of the world has the given crowd limit.
+	 * 		| new.getOccupancyMap().getCrowdLimit() == crowdLimit
+	 */
+	public World(int crowdLimit) throws IllegalArgumentException {
+		this.occupancyMap = new OccupancyMap(crowdLimit);
+	}
+
+	/**
+	 * Returns the occupancy map of this world.
+	 */
+	@Basic
+	public OccupancyMap getOccupancyMap() {
+		return this.occupancyMap;
+	}
+
+	/**
+	 * Returns the combat resolver resolving the attacks between units of this world.
+	 */
+	@Basic
+	public CombatResolver getCombatResolver() {
+		return this.combatResolver;
+	}
+
+	/**
+	 * Returns the metrics about the ticks of this world.
+	 */
+	@Basic
+	public TickMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Returns the manager of the regions of this world observed by clients.
+	 */
+	@Basic
+	public InterestManager getInterestManager() {
+		return this.interestManager;
+	}
+
+	/**
+	 * Returns the running totals over the units of this world.
+	 */
+	@Basic
+	public UnitAggregates getAggregates() {
+		return this.aggregates;
+	}
+
+	/**
+	 * Returns the units of this world. A unit is added at the end; when a unit is removed,
+	 * the last unit takes its place.
+	 */
+	public List<Unit> getUnits() {
+		return Collections.unmodifiableList(units);
+	}
+
+	/**
+	 * Returns the unit with the given id, or null if there is none.
+	 */
+	Unit getUnit(int id) {
+		return id < unitsById.length ? unitsById[id] : null;
+	}
+
+	/**
+	 * Returns an upper bound on the ids of the units of this world.
+	 */
+	int getIdCapacity() {
+		return this.nextId;
+	}
+
+	/* Target acquisition */
+	/**
+	 * Returns the distance, in cubes, within which units with default behaviour
+	 * look for hostile units to attack. A radius of 0 disables target acquisition.
+	 */
+	@Basic
+	public int getTargetAcquisitionRadius() {
+		return this.targetAcquisitionRadius;
+	}
+
+	/**
+	 * Set the distance within which units with default behaviour look for hostile units.
+	 *
+	 * @param radius
+	 *            The new radius, or 0 to disable target acquisition.
+	 * @post If the given radius is not negative, the radius is equal to the given radius.
+	 * 		Otherwise the radius is 0.
+	 * 		| new.getTargetAcquisitionRadius() == Math.max(0, radius)
+	 */
+	public void setTargetAcquisitionRadius(int radius) {
+		this.targetAcquisitionRadius = Math.max(0, radius);
+	}
+
+	/**
+	 * Returns at most k units nearest to the given cube, nearest first. The distance
+	 * between two cubes is the largest difference of their coordinates.
+	 *
+	 * @param cube
+	 *            The coordinate of the cube, as an array {x, y, z}.
+	 * @param k
+	 *            The maximal number of units to return.
+	 * @param radius
+	 *            The maximal distance of the units to return.
+	 */
+	public List<Unit> getNearestUnits(int[] cube, int k, int radius) {
+		int[] ids = new int[Math.max(0, k)];
+		int found = occupancyMap.nearestUnits(cube[0], cube[1], cube[2], radius, k, id -> true, ids);
+		List<Unit> result = new ArrayList<Unit>(found);
+		for (int i = 0; i < found; i++)
+			result.add(unitsById[ids[i]]);
+		return result;
+	}
+
+	/**
+	 * Returns the hostile unit nearest to the given unit within the target acquisition
+	 * radius, or null if there is none.
+	 *
+	 * @param unit
+	 *            The unit looking for an enemy.
+	 */
+	Unit findNearestEnemy(Unit unit) {
+		if (targetAcquisitionRadius == 0)
+			return null;
+		int[] cube = unit.getCubeCoordinate();
+		int[] ids = new int[1];
+		int found = occupancyMap.nearestUnits(cube[0], cube[1], cube[2], targetAcquisitionRadius, 1,
+				id -> unit.isHostileTo(unitsById[id]), ids);
+		return found == 0 ? null : unitsById[ids[0]];
+	}
+
+	/**
+	 * Checks whether there are no units in the given cube.
+	 *
+	 * @param cube
+	 *            The coordinate of the cube, as an array {x, y, z}.
+	 * @return | getOccupancyMap().isFree(cube[0],cube[1],cube[2])
+	 */
+	public boolean isCubeFree(int[] cube) {
+		return occupancyMap.isFree(cube[0], cube[1], cube[2]);
+	}
+
+	/**
+	 * Add the given unit to this world.
+	 *
+	 * @param unit
+	 *            The unit to add.
+	 * @post The unit belongs to this world and is registered in the cube it occupies.
+	 * 		| new.getUnits().contains(unit) && (new unit).getWorld() == this
+	 * @throws IllegalArgumentException
+	 *             The unit already belongs to a world, it is not inside the game world or
+	 *             its cube has reached its crowd limit.
+	 *             | unit.getWorld() != null || !canEnter(unit.getCubeCoordinate())
+	 */
+	public void addUnit(Unit unit) throws IllegalArgumentException {
+		int[] cube = unit.getCubeCoordinate();
+		if (unit.getWorld() != null || !canEnter(cube[0], cube[1], cube[2]))
+			throw new IllegalArgumentException();
+		admitUnit(unit);
+	}
+
+	/**
+	 * Add the given unit to this world without checking the crowd limit of its cube, for a
+	 * unit that already moved into the cube in another shard. The record of the unit is
+	 * moved to the unit store of this world. A moving unit reserves the cube it moves to.
+	 *
+	 * @post The unit belongs to this world and is registered in the cube it occupies.
+	 * 		| new.getUnits().contains(unit) && (new unit).getWorld() == this
+	 */
+	void admitUnit(Unit unit) {
+		int[] cube = unit.getCubeCoordinate();
+		int id;
+		if (freeIds.isEmpty())
+			id = nextId++;
+		else
+			id = freeIds.remove(freeIds.size() - 1);
+		if (id >= unitsById.length) {
+			Unit[] grown = new Unit[2 * unitsById.length];
+			System.arraycopy(unitsById, 0, grown, 0, unitsById.length);
+			unitsById = grown;
+			pendingTime = Arrays.copyOf(pendingTime, unitsById.length);
+			engagedUntil = Arrays.copyOf(engagedUntil, unitsById.length);
+			moveSlot = Arrays.copyOf(moveSlot, unitsById.length);
+			unitIndex = Arrays.copyOf(unitIndex, unitsById.length);
+		}
+		unitsById[id] = unit;
+		pendingTime[id] = 0;
+		engagedUntil[id] = 0;
+		unitIndex[id] = units.size();
+		units.add(unit);
+		unit.setWorld(this, id);
+		if (lockstep)
+			stateHash ^= unit.stateHash();
+		occupancyMap.enter(id, OccupancyMap.indexOf(cube[0], cube[1], cube[2]));
+		if (unit.isMoving())
+			reserveTarget(unit);
+		aggregates.unitAdded(unit.getFlags(), unit.getCurrentHitPoints(),
+				InterestManager.cellOf(cube[0], cube[1], cube[2]));
+		interestManager.unitAdded(unit, InterestManager.cellOf(cube[0], cube[1], cube[2]));
+	}
+
+	/**
+	 * Remove the given unit from this world.
+	 *
+	 * @param unit
+	 *            The unit to remove.
+	 * @post The unit no longer belongs to this world.
+	 * 		| !new.getUnits().contains(unit) && (new unit).getWorld() == null
+	 * @effect The removal listeners of this world are told the unit was removed.
+	 * 		| for each listener in removal listeners: listener.unitRemoved(unit)
+	 * @throws IllegalArgumentException
+	 *             The unit does not belong to this world.
+	 *             | unit.getWorld() != this
+	 */
+	public void removeUnit(Unit unit) throws IllegalArgumentException {
+		if (unit.getWorld() != this)
+			throw new IllegalArgumentException();
+		unregister(unit);
+		unit.setWorld(null, -1);
+		for (int i = 0; i < removalListeners.size(); i++)
+			removalListeners.get(i).unitRemoved(unit);
+	}
+
+	/**
+	 * Move the given unit of this shard to the given shard. The record of the unit is
+	 * moved from the unit store of this shard straight to the unit store of the given
+	 * shard, and the removal listeners are not told, since the unit stays in the sharded
+	 * world.
+	 *
+	 * @post | !new.getUnits().contains(unit) && (new unit).getWorld() == to
+	 * @effect | to.admitUnit(unit)
+	 */
+	void handOff(Unit unit, World to) {
+		unregister(unit);
+		to.admitUnit(unit);
+	}
+
+	/**
+	 * Forget the given unit of this world, leaving its record in the unit store of this
+	 * world until the unit is moved to another store.
+	 */
+	private void unregister(Unit unit) {
+		int id = unit.getId();
+		aggregates.unitRemoved(unit.getFlags(), unit.getCurrentHitPoints(),
+				InterestManager.cellOfCube(occupancyMap.cubeOf(id)));
+		interestManager.unitRemoved(unit, InterestManager.cellOfCube(occupancyMap.cubeOf(id)));
+		occupancyMap.leave(id);
+		Unit last = units.remove(units.size() - 1);
+		if (last != unit) {
+			units.set(unitIndex[id], last);
+			unitIndex[last.getId()] = unitIndex[id];
+		}
+		unitsById[id] = null;
+		freeIds.add(id);
+		if (lockstep)
+			stateHash ^= unit.stateHash();
+	}
+
+	/**
+	 * Tell the given listener about every unit removed from this world from now on. This
+	 * may only be done while this world is not advancing.
+	 *
+	 * @throws IllegalArgumentException
+	 *             | listener == null
+	 */
+	public void addRemovalListener(RemovalListener listener) throws IllegalArgumentException {
+		if (listener == null)
+			throw new IllegalArgumentException();
+		removalListeners.add(listener);
+	}
+
+	/**
+	 * Update the cube the given unit is registered in after it changed position.
+	 *
+	 * @param unit
+	 *            The unit that changed position.
+	 * @post The unit is registered in the cube it occupies.
+	 * @effect The listeners subscribed to the old or the new cell of the unit are told it moved.
+	 */
+	void updateCube(Unit unit) {
+		int cube = OccupancyMap.indexOf((int) unit.getX(), (int) unit.getY(), (int) unit.getZ());
+		int oldCube = occupancyMap.cubeOf(unit.getId());
+		if (oldCube != cube) {
+			occupancyMap.move(unit.getId(), cube);
+			aggregates.regionChanged(InterestManager.cellOfCube(oldCube), InterestManager.cellOfCube(cube));
+			int x = (int) unit.getX();
+			if (shardedWorld != null && (x < shardMinX || x >= shardMaxX))
+				leavingUnits.add(unit);
+		}
+		interestManager.unitMoved(unit, InterestManager.cellOfCube(oldCube), InterestManager.cellOfCube(cube));
+	}
+
+	/**
+	 * Checks whether the given unit of this world may start moving to the cube with the
+	 * given coordinates.
+	 *
+	 * @return | result == (the unit reserved the cube || canEnter(x,y,z))
+	 */
+	boolean canEnter(Unit unit, int x, int y, int z) {
+		return (OccupancyMap.isInside(x, y, z)
+				&& occupancyMap.reservationOf(unit.getId()) == OccupancyMap.indexOf(x, y, z)) || canEnter(x, y, z);
+	}
+
+	/**
+	 * Reserve the cube the given unit of this world starts moving to, so it counts as
+	 * occupied until the unit enters it or stops moving. A unit that moves within its
+	 * cube does not reserve a cube.
+	 */
+	void reserveTarget(Unit unit) {
+		int x = (int) unit.getTargetX(), y = (int) unit.getTargetY(), z = (int) unit.getTargetZ();
+		int cube = OccupancyMap.indexOf(x, y, z);
+		if (cube == occupancyMap.cubeOf(unit.getId()))
+			occupancyMap.release(unit.getId());
+		else
+			occupancyMap.reserve(unit.getId(), cube);
+	}
+
+	/**
+	 * Release the cube reserved by the given unit of this world, which stopped moving.
+	 */
+	void releaseTarget(Unit unit) {
+		occupancyMap.release(unit.getId());
+	}
+
+	/* Shards */
+	/**
+	 * Returns the sharded world this world is a shard of, or null if it is not a shard.
+	 */
+	ShardedWorld getShardedWorld() {
+		return this.shardedWorld;
+	}
+
+	/**
+	 * Make this world the shard of the given sharded world owning the cubes with an
+	 * x coordinate from minX up to maxX.
+	 */
+	void setShard(ShardedWorld shardedWorld, int minX, int maxX) {
+		this.shardedWorld = shardedWorld;
+		this.shardMinX = minX;
+		this.shardMaxX = maxX;
+	}
+
+	/**
+	 * Checks whether the given unit belongs to another shard of the same sharded world.
+	 */
+	boolean isInOtherShard(Unit unit) {
+		World other = unit.getWorld();
+		return shardedWorld != null && other != this && other != null && other.shardedWorld == shardedWorld;
+	}
+
+	/**
+	 * Pass on the given command, given to a unit that was handed off to another shard, to
+	 * that shard once all shards have advanced.
+	 */
+	void forward(Command command) {
+		forwardedCommands.add(command);
+	}
+
+	/**
+	 * Returns the commands passed on to other shards since the last call, in the order
+	 * they were passed on.
+	 */
+	List<Command> takeForwardedCommands() {
+		List<Command> result = new ArrayList<Command>(forwardedCommands);
+		forwardedCommands.clear();
+		return result;
+	}
+
+	/**
+	 * Checks whether another unit of this world may enter the cube with the given
+	 * coordinates. If this world is a shard, a cube just outside it is owned by a
+	 * neighbouring shard that is advancing at the same time, so its units are counted as
+	 * they were at the start of the tick, together with the units of this shard that
+	 * entered it since.
+	 *
+	 * @return If this world is not a shard or the cube is not next to it, whether the
+	 *         occupancy map of this world lets another unit enter the cube.
+	 * 		| if (getShardedWorld() == null)
+	 * 		|  then result == getOccupancyMap().canEnter(x,y,z)
+	 */
+	public boolean canEnter(int x, int y, int z) {
+		if (borderOccupancy == null || !OccupancyMap.isInside(x, y, z) || (x != shardMinX - 1 && x != shardMaxX))
+			return occupancyMap.canEnter(x, y, z);
+		int border = ((x == shardMaxX ? 1 : 0) * OccupancyMap.SIZE + y) * OccupancyMap.SIZE + z;
+		return occupancyMap.getOccupancy(x, y, z) + occupancyMap.getReservations(x, y, z)
+				+ borderOccupancy[border] < borderCrowdLimits[border];
+	}
+
+	/**
+	 * Copy the occupancy and the crowd limits of the cubes just outside this shard from
+	 * the given shards owning them, either of which is null at the edge of the game world.
+	 * This may only be done while no shard is advancing.
+	 */
+	void copyBorderOccupancy(World below, World above) {
+		if (borderOccupancy == null) {
+			borderOccupancy = new int[2 * OccupancyMap.SIZE * OccupancyMap.SIZE];
+			borderCrowdLimits = new int[borderOccupancy.length];
+		}
+		copyBorderOccupancy(below, shardMinX - 1, 0);
+		copyBorderOccupancy(above, shardMaxX, 1);
+	}
+
+	private void copyBorderOccupancy(World owner, int x, int side) {
+		if (owner == null)
+			return;
+		OccupancyMap map = owner.getOccupancyMap();
+		for (int y = 0; y < OccupancyMap.SIZE; y++)
+			for (int z = 0; z < OccupancyMap.SIZE; z++) {
+				int border = (side * OccupancyMap.SIZE + y) * OccupancyMap.SIZE + z;
+				borderOccupancy[border] = map.getOccupancy(x, y, z) + map.getReservations(x, y, z);
+				borderCrowdLimits[border] = map.getCrowdLimit(x, y, z);
+			}
+	}
+
+	/**
+	 * Returns the units that moved to a cube outside this shard since the last call, in
+	 * the order they left. A unit may be returned more then once.
+	 */
+	List<Unit> takeLeavingUnits() {
+		List<Unit> result = new ArrayList<Unit>(leavingUnits);
+		leavingUnits.clear();
+		return result;
+	}
+
+	/* Regions */
+	/**
+	 * Start observing the region between the given cubes, both included, from the start of
+	 * the next tick. This method may be called from any thread.
+	 *
+	 * @return A handle to stop observing the region with, using removeRegion.
+	 * @throws IllegalArgumentException
+	 *             One of the cubes is not inside the game world, or min is larger then max.
+	 * @effect | submit(Command.addRegion(handle, cells of min and max, null))
+	 */
+	public int addRegion(int[] min, int[] max) throws IllegalArgumentException {
+		int[] cells = InterestManager.cellsOf(min, max);
+		int handle = interestManager.reserveHandle();
+		submit(Command.addRegion(handle, cells, null));
+		return handle;
+	}
+
+	/**
+	 * Subscribe the given listener to the region between the given cubes, both included,
+	 * from the start of the next tick. This method may be called from any thread.
+	 *
+	 * @return A handle to stop the subscription with, using removeRegion.
+	 * @throws IllegalArgumentException
+	 *             One of the cubes is not inside the game world, or min is larger then max,
+	 *             or the listener is null.
+	 * @effect | submit(Command.addRegion(handle, cells of min and max, listener))
+	 */
+	public int subscribe(int[] min, int[] max, InterestListener listener) throws IllegalArgumentException {
+		if (listener == null)
+			throw new IllegalArgumentException();
+		int[] cells = InterestManager.cellsOf(min, max);
+		int handle = interestManager.reserveHandle();
+		submit(Command.addRegion(handle, cells, listener));
+		return handle;
+	}
+
+	/**
+	 * Stop observing the region with the given handle at the start of the next tick. This
+	 * method may be called from any thread; an unknown handle is ignored.
+	 *
+	 * @effect | submit(Command.removeRegion(handle))
+	 */
+	public void removeRegion(int handle) {
+		submit(Command.removeRegion(handle));
+	}
+
+	/* Commands */
+	/**
+	 * Add the given command to the commands to execute at the start of the next tick.
+	 * This method may be called from any thread and never blocks.
+	 *
+	 * @param command
+	 *            The command to add. A command may only be submitted once.
+	 */
+	public void submit(Command command) {
+		inbox.add(command);
+	}
+
+	/**
+	 * Returns the number of commands waiting for the next tick.
+	 */
+	public int getPendingCommandCount() {
+		return inbox.size();
+	}
+
+	/**
+	 * Execute all submitted commands, in the order they were submitted by each thread.
+	 * Commands for units that are not in this world anymore or that are refused by
+	 * their unit are dropped.
+	 */
+	private void executeCommands() {
+		Command command = inbox.drain();
+		while (command != null) {
+			Command next = command.next;
+			command.next = null;
+			command.execute(this);
+			command = next;
+		}
+	}
+
+	/* Snapshots */
+	/**
+	 * Returns the snapshot of the state of all units published at the end of the last tick.
+	 * This method may be called from any thread.
+	 */
+	public WorldSnapshot getSnapshot() {
+		return this.snapshot;
+	}
+
+	/**
+	 * Returns the snapshot published at the end of the tick before the last tick. This
+	 * method may only be called by the thread ticking the world.
+	 */
+	WorldSnapshot getPreviousSnapshot() {
+		return this.previousSnapshot;
+	}
+
+	/**
+	 * Returns whether a snapshot is published at the end of every tick.
+	 */
+	@Basic
+	public boolean isSnapshotsEnabled() {
+		return this.snapshotsEnabled;
+	}
+
+	/**
+	 * Set whether a snapshot is published at the end of every tick. Snapshots are not
+	 * published unless they are enabled, since every snapshot copies the state of all units.
+	 *
+	 * @post | new.isSnapshotsEnabled() == enabled
+	 */
+	public void setSnapshotsEnabled(boolean enabled) {
+		this.snapshotsEnabled = enabled;
+	}
+
+	/**
+	 * Returns the store holding the state of all units of this world, in the record given
+	 * by their id. The store may only be read by the thread ticking the world; other
+	 * threads read a copy of it.
+	 */
+	@Basic
+	public UnitStore getUnitStore() {
+		return this.unitStore;
+	}
+
+	/**
+	 * Returns whether the state of the units of this world is kept outside the heap.
+	 */
+	public boolean isOffHeapStateEnabled() {
+		return unitStore.isOffHeap();
+	}
+
+	/**
+	 * Set whether the state of the units of this world is kept outside the heap. The state
+	 * is kept on the heap unless this is enabled.
+	 *
+	 * @post | new.isOffHeapStateEnabled() == enabled
+	 * @effect | getUnitStore().setOffHeap(enabled)
+	 */
+	public void setOffHeapStateEnabled(boolean enabled) {
+		unitStore.setOffHeap(enabled);
+	}
+
+	/**
+	 * Returns the number of ticks this world has advanced.
+	 */
+	@Basic
+	public long getTick() {
+		return this.tick;
+	}
+
+	/**
+	 * Copy the state of all units to the snapshot that is not published, and publish it.
+	 * The published snapshot becomes the previous snapshot.
+	 */
+	private void publishSnapshot() {
+		WorldSnapshot back = previousSnapshot;
+		back.fill(this, tick);
+		previousSnapshot = snapshot;
+		snapshot = back;
+	}
+
+	/* Level of detail */
+	/**
+	 * Returns whether units that are not observed and not fighting are advanced at a
+	 * lower rate.
+	 */
+	@Basic
+	public boolean isLevelOfDetailEnabled() {
+		return this.levelOfDetailEnabled;
+	}
+
+	/**
+	 * Set whether units that are not observed and not fighting are advanced at a lower rate.
+	 *
+	 * @post | new.isLevelOfDetailEnabled() == enabled
+	 */
+	public void setLevelOfDetailEnabled(boolean enabled) {
+		this.levelOfDetailEnabled = enabled;
+	}
+
+	/**
+	 * Returns the number of ticks between two updates of a unit at the lower rate.
+	 */
+	@Basic
+	public int getLevelOfDetailInterval() {
+		return this.levelOfDetailInterval;
+	}
+
+	/**
+	 * Set the number of ticks between two updates of a unit at the lower rate.
+	 *
+	 * @param interval
+	 *            The new interval, in ticks.
+	 * @post | new.getLevelOfDetailInterval() == interval
+	 * @throws IllegalArgumentException
+	 *             | interval < 1
+	 */
+	public void setLevelOfDetailInterval(int interval) throws IllegalArgumentException {
+		if (interval < 1)
+			throw new IllegalArgumentException();
+		this.levelOfDetailInterval = interval;
+	}
+
+	/**
+	 * Mark the given unit as engaged in combat, so it is advanced at the full rate for
+	 * the next interval.
+	 */
+	void markEngaged(Unit unit) {
+		engagedUntil[unit.getId()] = tick + levelOfDetailInterval;
+	}
+
+	/**
+	 * Checks whether the given unit must be advanced every tick: it is attacking, was
+	 * engaged in combat recently or is in an observed region.
+	 */
+	private boolean isFullRate(Unit unit) {
+		int id = unit.getId();
+		return unit.isAttacking() || engagedUntil[id] > tick
+				|| interestManager.isObservedCell(InterestManager.cellOfCube(occupancyMap.cubeOf(id)));
+	}
+
+	/**
+	 * Advance the given unit by the given time period if it is advanced at the full rate,
+	 * otherwise collect the time and advance the unit by all collected time once every
+	 * interval. Units are spread over the ticks of an interval by their id.
+	 */
+	private void advanceWithLevelOfDetail(Unit unit, double dt) {
+		int id = unit.getId();
+		if (isFullRate(unit)) {
+			if (pendingTime[id] > 0) {
+				unit.advanceTimeAggregated(pendingTime[id]);
+				pendingTime[id] = 0;
+			}
+			unit.advanceTime(dt);
+		} else {
+			pendingTime[id] += dt;
+			if ((tick + id) % levelOfDetailInterval == 0) {
+				unit.advanceTimeAggregated(pendingTime[id]);
+				pendingTime[id] = 0;
+			}
+		}
+	}
+
+	/* Bulk movement */
+	/**
+	 * Returns whether the movement of all moving units is computed at once every tick.
+	 */
+	public boolean isBulkMovementEnabled() {
+		return this.movementKernel != null;
+	}
+
+	/**
+	 * Returns whether the movement of all moving units is computed with SIMD instructions.
+	 */
+	public boolean isVectorizedMovement() {
+		return this.movementKernel != null && !(this.movementKernel instanceof ScalarMovementKernel);
+	}
+
+	/**
+	 * Set whether the movement of all moving units is computed at once every tick. The
+	 * Vector API is used when the JVM provides it, otherwise the units are moved one by one.
+	 *
+	 * @post | new.isBulkMovementEnabled() == enabled
+	 */
+	public void setBulkMovementEnabled(boolean enabled) {
+		if (!enabled)
+			this.movementKernel = null;
+		else
+			this.movementKernel = lockstep ? new ScalarMovementKernel() : createMovementKernel();
+	}
+
+	/**
+	 * Returns a vectorized movement kernel if the vector source root was compiled and the
+	 * Vector API is available, and a scalar movement kernel otherwise.
+	 */
+	private static MovementKernel createMovementKernel() {
+		try {
+			return (MovementKernel) Class.forName("hillbillies.model.VectorMovementKernel").getDeclaredConstructor()
+					.newInstance();
+		} catch (ReflectiveOperationException | LinkageError exc) {
+			return new ScalarMovementKernel();
+		}
+	}
+
+	/**
+	 * Compute the new positions of all moving units that are advanced at the full rate
+	 * in this tick, and remember them by unit id.
+	 *
+	 * @return The number of units moved.
+	 */
+	private int stepMovingUnits(double dt) {
+		int n = 0;
+		for (int i = 0; i < units.size(); i++) {
+			Unit unit = units.get(i);
+			int id = unit.getId();
+			if (!unit.isMoving()
+					|| (levelOfDetailEnabled && !lockstep && (pendingTime[id] > 0 || !isFullRate(unit))))
+				continue;
+			if (n == moveX.length) {
+				int length = 2 * n;
+				moveX = Arrays.copyOf(moveX, length);
+				moveY = Arrays.copyOf(moveY, length);
+				moveZ = Arrays.copyOf(moveZ, length);
+				moveTargetX = Arrays.copyOf(moveTargetX, length);
+				moveTargetY = Arrays.copyOf(moveTargetY, length);
+				moveTargetZ = Arrays.copyOf(moveTargetZ, length);
+				moveSpeed = Arrays.copyOf(moveSpeed, length);
+				moveArrived = Arrays.copyOf(moveArrived, length);
+			}
+			moveX[n] = unit.getX();
+			moveY[n] = unit.getY();
+			moveZ[n] = unit.getZ();
+			moveTargetX[n] = unit.getTargetX();
+			moveTargetY[n] = unit.getTargetY();
+			moveTargetZ[n] = unit.getTargetZ();
+			moveSpeed[n] = unit.prepareMovement();
+			moveSlot[id] = ++n;
+		}
+		movementKernel.step(moveX, moveY, moveZ, moveTargetX, moveTargetY, moveTargetZ, moveSpeed, dt, 0, n,
+				moveArrived);
+		return n;
+	}
+
+	/* Lockstep */
+	/**
+	 * Returns whether this world is in lockstep mode. In lockstep mode, two worlds with the
+	 * same units that were given the same seed and execute the same commands in the same
+	 * order compute exactly the same state in every tick: random choices are drawn from
+	 * one seeded generator, attacks are never resolved in parallel, every unit is advanced
+	 * at the full rate and bulk movement uses the scalar movement kernel. A unit that
+	 * starts its default behaviour before it is added to the world makes its first choice
+	 * with an unseeded generator, so units should enable it once they are added.
+	 */
+	@Basic
+	public boolean isLockstep() {
+		return this.lockstep;
+	}
+
+	/**
+	 * Put this world in lockstep mode, with the given seed for the random choices of its units.
+	 *
+	 * @param seed
+	 *            The seed of the random generator of this world.
+	 * @post | new.isLockstep()
+	 * @post The state hash covers the current state of all units.
+	 */
+	public void enableLockstep(long seed) {
+		this.lockstep = true;
+		this.random = new Random(seed);
+		this.stateHash = 0;
+		for (Unit unit : units)
+			stateHash ^= unit.stateHash();
+		if (movementKernel != null)
+			movementKernel = new ScalarMovementKernel();
+	}
+
+	/**
+	 * Take this world out of lockstep mode.
+	 *
+	 * @post | !new.isLockstep()
+	 */
+	public void disableLockstep() {
+		this.lockstep = false;
+		this.random = null;
+	}
+
+	/**
+	 * Returns a hash of the position, orientation, hit points, stamina points and activity
+	 * of all units of this world. The hash is only kept up to date in lockstep mode. It is
+	 * the exclusive or of a hash of every field of every unit, and is updated whenever one
+	 * of these fields changes, so it never needs to visit all units.
+	 */
+	public long getStateHash() {
+		return this.stateHash;
+	}
+
+	/**
+	 * Returns the random generator the units of this world draw their choices from.
+	 */
+	Random getRandom() {
+		return lockstep ? random : ThreadLocalRandom.current();
+	}
+
+	/**
+	 * Update the state hash after the given field of the unit with the given id changed
+	 * from the given old value to the given new value.
+	 */
+	void stateChanged(int id, int field, long oldValue, long newValue) {
+		if (lockstep)
+			stateHash ^= fieldHash(id, field, oldValue) ^ fieldHash(id, field, newValue);
+	}
+
+	/**
+	 * Returns the hash of the given value of the given field of the unit with the given id.
+	 */
+	static long fieldHash(int id, int field, long value) {
+		return mix(mix(((long) id << 8) | field) ^ value);
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/* Time */
+	/**
+	 * Advance the state of all units of this world by the given time period.
+	 *
+	 * @param dt
+	 *            The time period, in seconds, by which to advance the world's state.
+	 * @effect First the submitted commands are executed.
+	 * @effect Every unit advances its time by dt, in the order of getUnits(). If level of
+	 *         detail is enabled and the world is not in lockstep mode, units that are not observed and not fighting collect the time
+	 *         and advance by all collected time once every level of detail interval. If bulk
+	 *         movement is enabled, the new positions of the moving units are computed first,
+	 *         all at once.
+	 * 		| for each unit in getUnits(): unit.advanceTime(dt)
+	 * @effect Afterwards the attacks started during this tick are resolved.
+	 * 		| getCombatResolver().resolve()
+	 * @post If snapshots are enabled, a snapshot of the new state is published.
+	 * 		| if (isSnapshotsEnabled())
+	 * 		|  then new.getSnapshot().getTick() == new.getTick()
+	 * @post | new.getUnitStore().getTick() == new.getTick()
+	 * @throws IllegalArgumentException
+	 *         | !(0<dt && dt <=0.2)
+	 */
+	public void advanceTime(double dt) throws IllegalArgumentException {
+		if (!(0 < dt && dt <= 0.2))
+			throw new IllegalArgumentException();
+		boolean measure = metrics.isEnabled();
+		TickEvent event = TICK_EVENT_TYPE.isEnabled() ? new TickEvent() : null;
+		if (event != null)
+			event.begin();
+		long start = measure ? System.nanoTime() : 0;
+		executeCommands();
+		int moved = (movementKernel != null) ? stepMovingUnits(dt) : 0;
+		for (int i = 0; i < units.size(); i++) {
+			Unit unit = units.get(i);
+			int slot = (moved > 0) ? moveSlot[unit.getId()] - 1 : -1;
+			if (slot >= 0) {
+				moveSlot[unit.getId()] = 0;
+				unit.advanceTimeMoved(dt, moveX[slot], moveY[slot], moveZ[slot], moveArrived[slot]);
+			} else if (levelOfDetailEnabled && !lockstep)
+				advanceWithLevelOfDetail(unit, dt);
+			else
+				unit.advanceTime(dt);
+		}
+		int resolutions = combatResolver.resolve();
+		tick++;
+		if (snapshotsEnabled)
+			publishSnapshot();
+		unitStore.setTick(tick);
+		if (measure)
+			metrics.record(this, System.nanoTime() - start, resolutions);
+		if (event != null) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.tick = tick;
+				event.units = units.size();
+				event.combatResolutions = resolutions;
+				event.moving = aggregates.getMovingCount();
+				event.working = aggregates.getWorkingCount();
+				event.resting = aggregates.getRestingCount();
+				event.attacking = aggregates.getAttackingCount();
+				if (measure)
+					event.moveToSteps = metrics.getMoveToSteps();
+				event.commit();
+			}
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package hillbillies.model;
+
+import java.util.Arrays;
+
+/**
+ * A class of read-only copies of the state of all units of a world at the end of a
+ * tick. A world that has snapshots enabled keeps two snapshots: at the end of every
+ * tick it copies its unit store in bulk into the snapshot that is not published, and
+ * then publishes that snapshot through a volatile field. Once they have grown to the
+ * size of the world, snapshots are filled without allocating.
+ *
+ * A snapshot also holds the units it contains and their ids, so a reader looks a unit
+ * up without reading the state of the unit itself. A reader on another thread than the
+ * one ticking the world reads the tick number before and after reading a snapshot: the
+ * tick number is WRITING while the snapshot is being overwritten, and changes once it
+ * was overwritten.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+public class WorldSnapshot {
+
+	/**
+	 * The tick number of a snapshot that is being overwritten.
+	 */
+	public static final long WRITING = -1;
+
+	private volatile long tick;
+	private final UnitStore store = new UnitStore(0, false);
+	private Unit[] keys = new Unit[1];
+	private int[] ids = new int[1];
+
+	/**
+	 * Initialize this new snapshot without units, taken before the first tick.
+	 */
+	WorldSnapshot() {
+	}
+
+	/**
+	 * Overwrite this snapshot with the state of all units of the given world.
+	 *
+	 * @param world
+	 *            The world to copy.
+	 * @param tick
+	 *            The number of the tick that just ended.
+	 * @post | new.getTick() == tick
+	 */
+	void fill(World world, long tick) {
+		this.tick = WRITING;
+		world.getUnitStore().copyTo(store);
+		int n = world.getIdCapacity();
+		if (keys.length < 2 * n) {
+			int length = Integer.highestOneBit(2 * n - 1) << 1;
+			keys = new Unit[length];
+			ids = new int[length];
+		} else
+			Arrays.fill(keys, null);
+		for (int id = 0; id < n; id++) {
+			Unit unit = world.getUnit(id);
+			if (unit != null) {
+				int i = slot(unit, keys);
+				while (keys[i] != null)
+					i = (i + 1) & (keys.length - 1);
+				keys[i] = unit;
+				ids[i] = id;
+			}
+		}
+		this.tick = tick;
+	}
+
+	private static int slot(Unit unit, Unit[] keys) {
+		int hash = System.identityHashCode(unit);
+		return (hash ^ (hash >>> 16)) & (keys.length - 1);
+	}
+
+	/**
+	 * Returns the number of the tick this snapshot was taken after, or WRITING if the
+	 * snapshot is being overwritten.
+	 */
+	public long getTick() {
+		return this.tick;
+	}
+
+	/**
+	 * Returns the id of the given unit in this snapshot, or -1 if this snapshot does not
+	 * contain the unit.
+	 */
+	private int find(Unit unit) {
+		Unit[] keys = this.keys;
+		int[] ids = this.ids;
+		for (int i = slot(unit, keys); keys[i] != null; i = (i + 1) & (keys.length - 1))
+			if (keys[i] == unit)
+				return ids[i];
+		return -1;
+	}
+
+	/**
+	 * Checks whether this snapshot contains the state of the given unit.
+	 */
+	public boolean contains(Unit unit) {
+		return find(unit) >= 0;
+	}
+
+	/**
+	 * Returns the x coordinate of the given unit in this snapshot.
+	 */
+	public double getX(Unit unit) {
+		return store.getDouble(index(unit), UnitStore.X);
+	}
+
+	/**
+	 * Returns the y coordinate of the given unit in this snapshot.
+	 */
+	public double getY(Unit unit) {
+		return store.getDouble(index(unit), UnitStore.Y);
+	}
+
+	/**
+	 * Returns the z coordinate of the given unit in this snapshot.
+	 */
+	public double getZ(Unit unit) {
+		return store.getDouble(index(unit), UnitStore.Z);
+	}
+
+	/**
+	 * Store the position of the given unit in this snapshot in the given array.
+	 *
+	 * @param result
+	 *            An array with at least 3 elements.
+	 * @return The given array.
+	 */
+	public double[] getPosition(Unit unit, double[] result) {
+		int i = index(unit);
+		result[0] = store.getDouble(i, UnitStore.X);
+		result[1] = store.getDouble(i, UnitStore.Y);
+		result[2] = store.getDouble(i, UnitStore.Z);
+		return result;
+	}
+
+	/**
+	 * Returns the orientation of the given unit in this snapshot.
+	 */
+	public double getOrientation(Unit unit) {
+		return store.getDouble(index(unit), UnitStore.ORIENTATION);
+	}
+
+	/**
+	 * Returns the hit points of the given unit in this snapshot.
+	 */
+	public int getCurrentHitPoints(Unit unit) {
+		return store.getInt(index(unit), UnitStore.HIT_POINTS);
+	}
+
+	/**
+	 * Returns the stamina points of the given unit in this snapshot.
+	 */
+	public int getCurrentStaminaPoints(Unit unit) {
+		return store.getInt(index(unit), UnitStore.STAMINA_POINTS);
+	}
+
+	/**
+	 * Returns the activity flags of the given unit in this snapshot: moving, sprinting,
+	 * working, resting and attacking as bits 0 to 4.
+	 */
+	public int getActivityFlags(Unit unit) {
+		return store.getInt(index(unit), UnitStore.FLAGS) & (UnitStore.MOVING | UnitStore.SPRINTING
+				| UnitStore.WORKING | UnitStore.RESTING | UnitStore.ATTACKING);
+	}
+
+	/**
+	 * Returns whether the given unit is moving in this snapshot.
+	 */
+	public boolean isMoving(Unit unit) {
+		return (getActivityFlags(unit) & UnitStore.MOVING) != 0;
+	}
+
+	/**
+	 * Returns whether the given unit is sprinting in this snapshot.
+	 */
+	public boolean isSprinting(Unit unit) {
+		return (getActivityFlags(unit) & UnitStore.SPRINTING) != 0;
+	}
+
+	/**
+	 * Returns whether the given unit is working in this snapshot.
+	 */
+	public boolean isWorking(Unit unit) {
+		return (getActivityFlags(unit) & UnitStore.WORKING) != 0;
+	}
+
+	/**
+	 * Returns whether the given unit is resting in this snapshot.
+	 */
+	public boolean isResting(Unit unit) {
+		return (getActivityFlags(unit) & UnitStore.RESTING) != 0;
+	}
+
+	/**
+	 * Returns whether the given unit is attacking in this snapshot.
+	 */
+	public boolean isAttacking(Unit unit) {
+		return (getActivityFlags(unit) & UnitStore.ATTACKING) != 0;
+	}
+
+	/**
+	 * Returns the id of the given unit in this snapshot.
+	 *
+	 * @throws IllegalArgumentException
+	 *             The unit is not in this snapshot.
+	 *             | !contains(unit)
+	 */
+	private int index(Unit unit) throws IllegalArgumentException {
+		int id = find(unit);
+		if (id < 0)
+			throw new IllegalArgumentException();
+		return id;
+	}
+}
@@ -0,0 +1,74 @@
+package hillbillies.model;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A benchmark comparing the scalar and the vectorized movement kernel, moving a number
+ * of units towards targets several cubes away. The targets are far enough that no unit
+ * arrives during a run, so every invocation does the same work.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class MovementKernelBenchmark {
+
+	@Param({ "scalar", "vector" })
+	public String kernel;
+
+	@Param({ "1000", "10000", "100000" })
+	public int units;
+
+	private MovementKernel movementKernel;
+	private double[] x, y, z, tx, ty, tz, speed, startX, startY, startZ;
+	private boolean[] arrived;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		movementKernel = kernel.equals("vector") ? new VectorMovementKernel() : new ScalarMovementKernel();
+		Random random = new Random(0);
+		x = new double[units];
+		y = new double[units];
+		z = new double[units];
+		tx = new double[units];
+		ty = new double[units];
+		tz = new double[units];
+		speed = new double[units];
+		arrived = new boolean[units];
+		for (int i = 0; i < units; i++) {
+			x[i] = 0.5 + random.nextInt(25);
+			y[i] = 0.5 + random.nextInt(25);
+			z[i] = 0.5 + random.nextInt(25);
+			tx[i] = x[i] + 20 + random.nextInt(5);
+			ty[i] = y[i] + 20 + random.nextInt(5);
+			tz[i] = z[i] + 20 + random.nextInt(5);
+			speed[i] = 0.75 + 2.25 * random.nextDouble();
+		}
+		startX = x.clone();
+		startY = y.clone();
+		startZ = z.clone();
+	}
+
+	@Setup(Level.Iteration)
+	public void resetPositions() {
+		System.arraycopy(startX, 0, x, 0, units);
+		System.arraycopy(startY, 0, y, 0, units);
+		System.arraycopy(startZ, 0, z, 0, units);
+	}
+
+	@Benchmark
+	public void step(Blackhole blackhole) {
+		// a step of 1e-6 s keeps the units from reaching their targets within an iteration
+		movementKernel.step(x, y, z, tx, ty, tz, speed, 1e-6, 0, units, arrived);
+		blackhole.consume(arrived);
+	}
+}
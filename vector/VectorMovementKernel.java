@@ -0,0 +1,47 @@
+package hillbillies.model;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A class of movement kernels moving as many units at once as fit in a SIMD register,
+ * using the incubating Vector API. This class is in its own source root, vector, which
+ * is only compiled and run with --add-modules jdk.incubator.vector. Without it the world
+ * uses a ScalarMovementKernel.
+ *
+ * @version 1.0
+ * @author Sigrid Feyaerts, Eleanor Van Looy
+ */
+class VectorMovementKernel implements MovementKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	private final ScalarMovementKernel tail = new ScalarMovementKernel();
+
+	@Override
+	public void step(double[] x, double[] y, double[] z, double[] tx, double[] ty, double[] tz, double[] speed,
+			double dt, int from, int to, boolean[] arrived) {
+		int i = from;
+		int bound = from + SPECIES.loopBound(to - from);
+		for (; i < bound; i += SPECIES.length()) {
+			DoubleVector vx = DoubleVector.fromArray(SPECIES, x, i);
+			DoubleVector vy = DoubleVector.fromArray(SPECIES, y, i);
+			DoubleVector vz = DoubleVector.fromArray(SPECIES, z, i);
+			DoubleVector vtx = DoubleVector.fromArray(SPECIES, tx, i);
+			DoubleVector vty = DoubleVector.fromArray(SPECIES, ty, i);
+			DoubleVector vtz = DoubleVector.fromArray(SPECIES, tz, i);
+			DoubleVector dx = vtx.sub(vx), dy = vty.sub(vy), dz = vtz.sub(vz);
+			DoubleVector distance = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz)).lanewise(VectorOperators.SQRT);
+			DoubleVector step = DoubleVector.fromArray(SPECIES, speed, i).mul(dt);
+			VectorMask<Double> moving = distance.compare(VectorOperators.GT, step);
+			DoubleVector scale = step.div(distance);
+			vtx.blend(vx.add(dx.mul(scale)), moving).intoArray(x, i);
+			vty.blend(vy.add(dy.mul(scale)), moving).intoArray(y, i);
+			vtz.blend(vz.add(dz.mul(scale)), moving).intoArray(z, i);
+			moving.not().intoArray(arrived, i);
+		}
+		tail.step(x, y, z, tx, ty, tz, speed, dt, i, to, arrived);
+	}
+}